@@ -0,0 +1,76 @@
+/* Copyright (c) 2015 AlexIIL
+ *
+ * See the file "LICENSE" for copying permission. */
+package alexiil.node.core.bench;
+
+import alexiil.node.core.INode;
+import alexiil.node.core.NodeGraph;
+import alexiil.node.core.ValueNode;
+import alexiil.node.core.math.MathNodes;
+
+/** Builds the graphs used by the benchmarks. */
+public class BenchGraphs {
+    public enum Shape {
+        /** Every column is a separate chain of adders, that each add the column's value to the previous result. */
+        CHAIN,
+        /** Every node adds together the nodes in its own column and the next column of the previous level. */
+        DIAMOND
+    }
+
+    public enum NumberType {
+        LONG,
+        DOUBLE
+    }
+
+    /** Builds a graph that is "width" columns wide and "depth" math nodes deep. The columns are all added together at
+     * the end and given to a return node called "return".
+     * 
+     * @return The graph, with no elements requested or computed yet. */
+    public static NodeGraph build(Shape shape, NumberType type, int depth, int width) {
+        NodeGraph graph = new NodeGraph();
+        INode[] values = new INode[width];
+        for (int c = 0; c < width; c++) {
+            if (type == NumberType.LONG) {
+                values[c] = graph.addCopyOf(MathNodes.longCreator.createNode(c + 1L), "v" + c);
+            } else {
+                values[c] = graph.addCopyOf(MathNodes.doubleCreator.createNode(c + 1.5), "v" + c);
+            }
+        }
+
+        INode[] current = values.clone();
+        for (int d = 0; d < depth; d++) {
+            INode[] next = new INode[width];
+            for (int c = 0; c < width; c++) {
+                next[c] = graph.addCopyOf(adder(type), "n" + d + "_" + c);
+                if (shape == Shape.CHAIN) {
+                    connect(graph, current[c], next[c], "a");
+                    connect(graph, values[c], next[c], "b");
+                } else {
+                    connect(graph, current[c], next[c], "a");
+                    connect(graph, current[(c + 1) % width], next[c], "b");
+                }
+            }
+            current = next;
+        }
+
+        INode sum = current[0];
+        for (int c = 1; c < width; c++) {
+            INode adder = graph.addCopyOf(adder(type), "sum" + c);
+            connect(graph, sum, adder, "a");
+            connect(graph, current[c], adder, "b");
+            sum = adder;
+        }
+
+        INode returner = graph.addCopyOf(type == NumberType.LONG ? MathNodes.longReturner : MathNodes.doubleReturner, "return");
+        connect(graph, sum, returner, "val");
+        return graph;
+    }
+
+    private static INode adder(NumberType type) {
+        return type == NumberType.LONG ? MathNodes.longAdder : MathNodes.doubleAdder;
+    }
+
+    private static void connect(NodeGraph graph, INode from, INode to, String input) {
+        graph.connectIO(from, from instanceof ValueNode ? "val" : "ans", to, input);
+    }
+}
@@ -0,0 +1,54 @@
+/* Copyright (c) 2015 AlexIIL
+ *
+ * See the file "LICENSE" for copying permission. */
+package alexiil.node.core.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import alexiil.node.core.NodeGraph;
+import alexiil.node.core.bench.BenchGraphs.NumberType;
+import alexiil.node.core.bench.BenchGraphs.Shape;
+import alexiil.node.core.math.MathNodes;
+
+/** Measures how long it takes to build graphs with {@link NodeGraph#addCopyOf(alexiil.node.core.INode, String)} and
+ * {@link NodeGraph#connectIO(alexiil.node.core.INode, String, alexiil.node.core.INode, String)}. */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+public class ConstructionBenchmark {
+    @Param({ "100", "1000", "10000" })
+    public int size;
+
+    @Benchmark
+    public NodeGraph addCopyOf() {
+        NodeGraph graph = new NodeGraph();
+        for (int i = 0; i < size; i++) {
+            graph.addCopyOf(MathNodes.longAdder, "n" + i);
+        }
+        return graph;
+    }
+
+    @Benchmark
+    public NodeGraph connectChain() {
+        return BenchGraphs.build(Shape.CHAIN, NumberType.LONG, size, 1);
+    }
+
+    @Benchmark
+    public NodeGraph connectDiamond() {
+        return BenchGraphs.build(Shape.DIAMOND, NumberType.LONG, size / 4, 4);
+    }
+}
@@ -0,0 +1,109 @@
+/* Copyright (c) 2015 AlexIIL
+ *
+ * See the file "LICENSE" for copying permission. */
+package alexiil.node.core.bench;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.DoubleSupplier;
+import java.util.function.LongSupplier;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import alexiil.node.core.GraphOptimizer;
+import alexiil.node.core.NodeGraph;
+import alexiil.node.core.ReturnNode;
+import alexiil.node.core.SharedGraph;
+import alexiil.node.core.bench.BenchGraphs.NumberType;
+import alexiil.node.core.bench.BenchGraphs.Shape;
+import alexiil.node.core.math.MathCompiler;
+
+/** Measures how long {@link ReturnNode#get()} takes for different shapes and sizes of math graphs, one value at a time,
+ * in batches of {@link #BATCH}, when compiled and when shared. */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+public class EvaluationBenchmark {
+    public static final int BATCH = 1024;
+
+    @Param({ "CHAIN", "DIAMOND" })
+    public Shape shape;
+
+    @Param({ "LONG", "DOUBLE" })
+    public NumberType type;
+
+    @Param({ "1", "10", "100" })
+    public int depth;
+
+    @Param({ "1", "4", "16" })
+    public int width;
+
+    /** If true the graph is run through {@link GraphOptimizer} first. Every benchmark graph is made only of constants,
+     * so this folds the whole graph down to a single value node. */
+    @Param({ "false", "true" })
+    public boolean optimize;
+
+    private ReturnNode<?> returnNode;
+    private LongSupplier compiledLong;
+    private DoubleSupplier compiledDouble;
+    private SharedGraph shared;
+    private final long[] longs = new long[BATCH];
+    private final double[] doubles = new double[BATCH];
+
+    @Setup
+    public void setup() {
+        NodeGraph graph = BenchGraphs.build(shape, type, depth, width);
+        returnNode = (ReturnNode<?>) graph.getNode("return");
+        if (optimize)
+            returnNode = GraphOptimizer.optimize(graph).get(returnNode);
+        if (type == NumberType.LONG)
+            compiledLong = MathCompiler.compileLong((ReturnNode<Long>) returnNode);
+        else
+            compiledDouble = MathCompiler.compileDouble((ReturnNode<Double>) returnNode);
+        shared = new SharedGraph(returnNode.getGraph());
+    }
+
+    @Benchmark
+    public Object get() {
+        return returnNode.get();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public Object getBatch() {
+        if (type == NumberType.LONG) {
+            returnNode.get(longs);
+            return longs;
+        } else {
+            returnNode.get(doubles);
+            return doubles;
+        }
+    }
+
+    /** The same as {@link #get()}, but using {@link MathCompiler}. */
+    @Benchmark
+    public Object getCompiled() {
+        if (type == NumberType.LONG)
+            return compiledLong.getAsLong();
+        return compiledDouble.getAsDouble();
+    }
+
+    /** The same as {@link #get()}, but through a {@link SharedGraph} (with a pooled context each time). */
+    @Benchmark
+    public Object getShared() {
+        return shared.get(returnNode.getName(), Object.class);
+    }
+}
@@ -0,0 +1,112 @@
+/* Copyright (c) 2015 AlexIIL
+ *
+ * See the file "LICENSE" for copying permission. */
+package alexiil.node.core.bench;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.LongStream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import alexiil.node.core.ChannelSinkNode;
+import alexiil.node.core.ChannelSinkNode.Encoding;
+import alexiil.node.core.INode;
+import alexiil.node.core.InputNode;
+import alexiil.node.core.NodeGraph;
+import alexiil.node.core.ReturnNode;
+import alexiil.node.core.math.MathNodes;
+
+/** Measures streaming {@link #COUNT} values from an {@link InputNode} through a single adder and out of the graph, either
+ * with {@link ReturnNode#get(long[])} or into a file with a {@link ChannelSinkNode}. */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+public class ExportBenchmark {
+    public static final int COUNT = 1 << 20;
+
+    private InputNode<Long> returnInput, sinkInput;
+    private ReturnNode<Long> returnNode;
+    private ChannelSinkNode<Long> sink;
+    private final long[] values = new long[COUNT];
+    private Path file;
+    private FileChannel channel;
+
+    @Setup
+    public void setup() throws IOException {
+        // Separate graphs, as the adder can't push anything once either of them is full
+        NodeGraph graph = new NodeGraph(4096);
+        returnInput = graph.addCopyOf(MathNodes.longInput, "input");
+        INode adder = addOne(graph, returnInput);
+        returnNode = graph.addCopyOf(MathNodes.longReturner, "return");
+        graph.connectIO(adder, "ans", returnNode, "val");
+
+        graph = new NodeGraph(4096);
+        sinkInput = graph.addCopyOf(MathNodes.longInput, "input");
+        adder = addOne(graph, sinkInput);
+        sink = graph.addCopyOf(MathNodes.longSink, "sink");
+        graph.connectIO(adder, "ans", sink, "val");
+        file = Files.createTempFile("bench", ".out");
+        channel = FileChannel.open(file, StandardOpenOption.WRITE);
+    }
+
+    private static INode addOne(NodeGraph graph, INode input) {
+        INode one = graph.addCopyOf(MathNodes.longCreator.createNode(1L), "one");
+        INode adder = graph.addCopyOf(MathNodes.longAdder, "adder");
+        graph.connectIO(input, "val", adder, "a");
+        graph.connectIO(one, "val", adder, "b");
+        return adder;
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        channel.close();
+        Files.deleteIfExists(file);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(COUNT)
+    public long[] returnValues() {
+        returnInput.setSource(LongStream.range(0, COUNT));
+        returnNode.get(values);
+        return values;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(COUNT)
+    public long writeBinary() throws IOException {
+        return write(Encoding.BINARY);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(COUNT)
+    public long writeText() throws IOException {
+        return write(Encoding.TEXT);
+    }
+
+    private long write(Encoding encoding) throws IOException {
+        channel.truncate(0);
+        channel.position(0);
+        sinkInput.setSource(LongStream.range(0, COUNT));
+        sink.setChannel(channel, encoding);
+        return sink.drain(COUNT);
+    }
+}
@@ -0,0 +1,65 @@
+/* Copyright (c) 2015 AlexIIL
+ *
+ * See the file "LICENSE" for copying permission. */
+package alexiil.node.core.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import alexiil.node.core.INode;
+import alexiil.node.core.NodeGraph;
+import alexiil.node.core.ReturnNode;
+import alexiil.node.core.image.ImageNodes;
+import alexiil.node.core.image.TiledImage;
+import alexiil.node.core.math.MathNodes;
+
+/** Measures creating a square image, blurring it, greyscaling it and blending it with the original. */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+public class ImageBenchmark {
+    /** The width and height of the image. */
+    @Param({ "512", "4096" })
+    public int size;
+
+    private ReturnNode<TiledImage> returnNode;
+
+    @Setup
+    public void setup() {
+        NodeGraph graph = new NodeGraph();
+        INode size = graph.addCopyOf(MathNodes.longCreator.createNode((long) this.size), "size");
+        INode colour = graph.addCopyOf(MathNodes.longCreator.createNode(0xFF_20_40_60L), "colour");
+        INode creator = graph.addCopyOf(ImageNodes.imageCreator, "creator");
+        INode blurrer = graph.addCopyOf(ImageNodes.imageBlurrer, "blurrer");
+        INode greyscaler = graph.addCopyOf(ImageNodes.imageGreyscaler, "greyscaler");
+        INode overlayer = graph.addCopyOf(ImageNodes.imageOverlayer, "overlayer");
+        returnNode = graph.addCopyOf(ImageNodes.imageReturner, "return");
+        graph.connectIO(size, "val", creator, "sizeX");
+        graph.connectIO(size, "val", creator, "sizeY");
+        graph.connectIO(colour, "val", creator, "colour");
+        graph.connectIO(creator, "img", blurrer, "img");
+        graph.connectIO(blurrer, "img", greyscaler, "img");
+        graph.connectIO(greyscaler, "img", overlayer, "a");
+        graph.connectIO(creator, "img", overlayer, "b");
+        graph.connectIO(overlayer, "img", returnNode, "val");
+    }
+
+    @Benchmark
+    public TiledImage get() {
+        return returnNode.get();
+    }
+}
@@ -0,0 +1,109 @@
+/* Copyright (c) 2015 AlexIIL
+ *
+ * See the file "LICENSE" for copying permission. */
+package alexiil.node.core.bench;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import alexiil.node.core.GraphReader;
+import alexiil.node.core.GraphReader.Flag;
+import alexiil.node.core.GraphReader.SaveType;
+import alexiil.node.core.GraphTemplateCache;
+import alexiil.node.core.NodeGraph;
+import alexiil.node.core.bench.BenchGraphs.NumberType;
+import alexiil.node.core.bench.BenchGraphs.Shape;
+
+/** Measures {@link GraphReader#writeNodeGraph(java.io.OutputStream, NodeGraph, SaveType, Flag...)} and
+ * {@link GraphReader#readNodeGraph(java.io.InputStream)} for every save type, as well as the file based versions. */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+public class SerializationBenchmark {
+    /** The {@link SaveType}, optionally followed by "+" and the {@link Flag}s to use. */
+    @Param({ "READABLE_JSON", "READABLE_JSON+MINIFIED", "READABLE_COMPACT", "BYTES_COMPACT", "BYTES_COMPACT+COMPRESSED" })
+    public String format;
+
+    /** The depth of a 4 wide diamond graph, so the graph has roughly 4 times this many nodes. */
+    @Param({ "10", "1000" })
+    public int depth;
+
+    private NodeGraph graph;
+    private SaveType type;
+    private Flag[] flags;
+    private byte[] bytes;
+    private ByteArrayOutputStream output;
+    private Path file;
+    private GraphTemplateCache cache;
+
+    @Setup
+    public void setup() throws IOException {
+        String[] parts = format.split("\\+");
+        type = SaveType.valueOf(parts[0]);
+        flags = new Flag[parts.length - 1];
+        for (int i = 1; i < parts.length; i++) {
+            flags[i - 1] = Flag.valueOf(parts[i]);
+        }
+        graph = BenchGraphs.build(Shape.DIAMOND, NumberType.LONG, depth, 4);
+        output = new ByteArrayOutputStream();
+        GraphReader.writeNodeGraph(output, graph, type, flags);
+        bytes = output.toByteArray();
+        file = Files.createTempFile("bench", ".graph");
+        GraphReader.writeNodeGraph(file, graph, type, flags);
+        cache = new GraphTemplateCache(Long.MAX_VALUE);
+        cache.load(bytes);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(file);
+    }
+
+    @Benchmark
+    public int write() throws IOException {
+        output.reset();
+        GraphReader.writeNodeGraph(output, graph, type, flags);
+        return output.size();
+    }
+
+    @Benchmark
+    public NodeGraph read() throws IOException {
+        return GraphReader.readNodeGraph(new ByteArrayInputStream(bytes));
+    }
+
+    @Benchmark
+    public void writeFile() throws IOException {
+        GraphReader.writeNodeGraph(file, graph, type, flags);
+    }
+
+    @Benchmark
+    public NodeGraph readFile() throws IOException {
+        return GraphReader.readNodeGraph(file);
+    }
+
+    /** Loads the same bytes as {@link #read()}, but always from the cached template. */
+    @Benchmark
+    public NodeGraph readCached() throws IOException {
+        return cache.load(bytes);
+    }
+}
@@ -3,6 +3,7 @@
  * See the file "LICENSE" for copying permission. */
 package alexiil.node.core;
 
+import java.io.PrintStream;
 import java.util.Collections;
 import java.util.Map;
 import java.util.Map.Entry;
@@ -22,6 +23,8 @@ public abstract class AbstractNode implements INode {
     private final NodeGraph graph;
     private final NodeRegistry registry;
     private final String name, typeTag;
+    /** Whatever the {@link GraphMetrics} attached to the graph keeps for this node, so it only has to look it up once. */
+    Object metricsStats;
 
     /** Creates an {@link AbstractNode} that will be registered with a single registry.
      * 
@@ -137,14 +140,18 @@ public abstract class AbstractNode implements INode {
             if (in.getRemainingElements() <= 0)
                 return false;
         }
-        System.out.println("State of " + name + " before computing");
-        printState();
+        for (GraphConnection<?> out : outputs.values()) {
+            if (out.getFreeSpace() <= 0)
+                return false;
+        }
+        GraphTracer tracer = graph.tracer;
+        if (tracer != null)
+            tracer.onComputeStart(this);
 
         boolean b = computeNext();
 
-        System.out.println("State of " + name + " AFTER computing");
-        printState();
-
+        if (tracer != null)
+            tracer.onComputeEnd(this, b);
         return b;
     }
 
@@ -156,13 +163,17 @@ public abstract class AbstractNode implements INode {
 
     // DEBUG
     public void printState() {
-        System.out.println(" Inputs:");
+        printState(System.out);
+    }
+
+    public void printState(PrintStream out) {
+        out.println(" Inputs:");
         for (Entry<String, GraphConnection<?>> entry : inputs.entrySet()) {
-            System.out.println(" - " + entry.getKey() + " = " + entry.getValue());
+            out.println(" - " + entry.getKey() + " = " + entry.getValue());
         }
-        System.out.println(" Outputs:");
+        out.println(" Outputs:");
         for (Entry<String, GraphConnection<?>> entry : outputs.entrySet()) {
-            System.out.println(" - " + entry.getKey() + " = " + entry.getValue());
+            out.println(" - " + entry.getKey() + " = " + entry.getValue());
         }
     }
 }
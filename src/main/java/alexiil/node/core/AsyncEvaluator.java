@@ -0,0 +1,145 @@
+/* Copyright (c) 2015 AlexIIL
+ *
+ * See the file "LICENSE" for copying permission. */
+package alexiil.node.core;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+/** Collects the asynchronous requests for a single {@link NodeGraph} and evaluates them in batches. Every request made
+ * while a batch is waiting to run joins that batch, and the whole batch is evaluated together, so return nodes that
+ * share upstream nodes only compute them once.
+ *
+ * Only one batch runs at a time: new requests made while one is running are evaluated straight after it, on the same
+ * thread.
+ *
+ * @author AlexIIL */
+final class AsyncEvaluator {
+    /** A single value that has been asked for. */
+    private static final class Request {
+        final ReturnNode<?> node;
+        final CompletableFuture<Object> future = new CompletableFuture<>();
+
+        Request(ReturnNode<?> node) {
+            this.node = node;
+        }
+    }
+
+    private final NodeGraph graph;
+    /** Everything that has been asked for but hasn't started being evaluated yet. Guarded by this. */
+    private List<Request> pending = Lists.newArrayList();
+    /** True if a batch has been given to an executor and hasn't finished yet. Guarded by this. */
+    private boolean scheduled = false;
+
+    AsyncEvaluator(NodeGraph graph) {
+        this.graph = graph;
+    }
+
+    /** Asks for the next value of every given node (so the same node given twice gets its next two values).
+     *
+     * @param executor The executor to run the batch on, if there isn't one waiting to run already. */
+    List<CompletableFuture<Object>> submit(Executor executor, ReturnNode<?>... nodes) {
+        for (ReturnNode<?> node : nodes) {
+            if (node.getGraph() != graph)
+                throw new IllegalArgumentException(node.getName() + " is not part of this graph!");
+        }
+        List<CompletableFuture<Object>> futures = Lists.newArrayListWithCapacity(nodes.length);
+        boolean schedule;
+        synchronized (this) {
+            for (ReturnNode<?> node : nodes) {
+                Request request = new Request(node);
+                pending.add(request);
+                futures.add(request.future);
+            }
+            schedule = !scheduled;
+            scheduled = true;
+        }
+        if (schedule) {
+            try {
+                executor.execute(this::drain);
+            } catch (RuntimeException e) {
+                // Nothing will ever run what is pending, so fail all of it rather than leaving it waiting forever
+                failPending(e);
+            }
+        }
+        return futures;
+    }
+
+    private void drain() {
+        try {
+            while (true) {
+                List<Request> batch;
+                synchronized (this) {
+                    batch = pending;
+                    if (batch.isEmpty()) {
+                        scheduled = false;
+                        return;
+                    }
+                    pending = Lists.newArrayList();
+                }
+                evaluate(batch);
+            }
+        } catch (Error e) {
+            failPending(e);
+            throw e;
+        }
+    }
+
+    /** Fails everything that is pending and lets the next request schedule a new batch. */
+    private void failPending(Throwable t) {
+        List<Request> failed;
+        synchronized (this) {
+            failed = pending;
+            pending = Lists.newArrayList();
+            scheduled = false;
+        }
+        for (Request request : failed) {
+            request.future.completeExceptionally(t);
+        }
+    }
+
+    /** Evaluates the graph (as few times as possible) until every request in the batch has its value. */
+    private void evaluate(List<Request> batch) {
+        Map<ReturnNode<?>, Deque<Request>> waiting = Maps.newLinkedHashMap();
+        for (Request request : batch) {
+            waiting.computeIfAbsent(request.node, n -> new ArrayDeque<>()).add(request);
+        }
+        try {
+            while (!waiting.isEmpty()) {
+                for (Map.Entry<ReturnNode<?>, Deque<Request>> entry : waiting.entrySet()) {
+                    entry.getKey().requestValues(entry.getValue().size());
+                }
+                graph.iterate(waiting.keySet());
+                boolean computed = false;
+                for (Map.Entry<ReturnNode<?>, Deque<Request>> entry : waiting.entrySet()) {
+                    ReturnNode<?> node = entry.getKey();
+                    Deque<Request> requests = entry.getValue();
+                    while (!requests.isEmpty() && node.hasValue()) {
+                        requests.poll().future.complete(node.popValue());
+                        computed = true;
+                    }
+                }
+                if (!computed)
+                    throw new IllegalStateException("The graph did not compute anything!");
+                waiting.values().removeIf(Deque::isEmpty);
+            }
+        } catch (Throwable t) {
+            for (Deque<Request> requests : waiting.values()) {
+                for (Request request : requests) {
+                    request.future.completeExceptionally(new IllegalStateException("Could not GET for " + request.node
+                            .getName(), t));
+                }
+            }
+            // Errors still fail the batch (so nothing waits forever), but they aren't swallowed
+            if (t instanceof Error)
+                throw (Error) t;
+        }
+    }
+}
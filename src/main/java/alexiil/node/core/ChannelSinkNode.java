@@ -0,0 +1,258 @@
+/* Copyright (c) 2015 AlexIIL
+ *
+ * See the file "LICENSE" for copying permission. */
+package alexiil.node.core;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+
+import alexiil.node.core.NodeGraph.DoubleConnection;
+import alexiil.node.core.NodeGraph.GraphConnection;
+import alexiil.node.core.NodeGraph.LongConnection;
+
+/** A node that writes every value given to it to a {@link WritableByteChannel} (such as a
+ * {@link java.nio.channels.FileChannel}), instead of returning them one at a time like {@link ReturnNode}. Values are
+ * encoded into a direct buffer that is reused for every write, so the channel is only written to once per buffer full
+ * (and once at the end of every {@link #drain(long)}). Longs and doubles are popped from the connection in chunks and
+ * are never boxed.
+ *
+ * The channel is not part of the graph: copies of this start out without one, and it is not saved. This never closes
+ * the channel.
+ *
+ * @author AlexIIL
+ *
+ * @param <N> The type of value to write */
+public class ChannelSinkNode<N> extends AbstractNode {
+    public enum Encoding {
+        /** Each value as 8 big-endian bytes, with nothing in between. This only works for longs and doubles. */
+        BINARY,
+        /** Each value as its string form in UTF-8, followed by the {@link ChannelSinkNode#setDelimiter(String)
+         * delimiter}. */
+        TEXT
+    }
+
+    public static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+    /** The most values that are popped from the connection in one go. */
+    private static final int CHUNK = InputNode.CHUNK;
+
+    private final Class<N> clazz;
+    private final GraphConnection<N> connection;
+    private WritableByteChannel channel;
+    private Encoding encoding;
+    private ByteBuffer buffer;
+    private byte[] delimiter = { '\n' };
+    private long[] longs;
+    private double[] doubles;
+    /** Space for the digits of a single long, written backwards. */
+    private final byte[] digits = new byte[20];
+    private long written = 0;
+    /** The number of values that the current {@link #drain(long)} still wants. Nothing is written outside of one. */
+    private long remaining = 0;
+
+    public ChannelSinkNode(NodeRegistry registry, String typeTag, Class<N> clazz) {
+        super(registry, typeTag);
+        this.clazz = clazz;
+        connection = null;
+    }
+
+    public ChannelSinkNode(NodeRegistry registry, String typeTag, NodeGraph graph, Class<N> clazz, String name) {
+        super(registry, typeTag, graph, name);
+        this.clazz = clazz;
+        connection = addInput("val", clazz);
+    }
+
+    @Override
+    public AbstractNode createCopy(NodeGraph graph, String name) {
+        return new ChannelSinkNode<N>(getRegistry(), getTypeTag(), graph, clazz, name);
+    }
+
+    /** The same as {@link #setChannel(WritableByteChannel, Encoding, int)}, with a buffer of
+     * {@link #DEFAULT_BUFFER_SIZE} bytes. */
+    public void setChannel(WritableByteChannel channel, Encoding encoding) throws IOException {
+        setChannel(channel, encoding, DEFAULT_BUFFER_SIZE);
+    }
+
+    /** Sets where every value from now on is written to. Anything still buffered for the previous channel is written to
+     * it first.
+     *
+     * @param bufferSize The number of bytes to collect before writing them to the channel. Larger buffers mean fewer
+     *            (but larger) writes.
+     * @throws IllegalArgumentException if the encoding is {@link Encoding#BINARY} and this doesn't write longs or
+     *             doubles, or if the buffer is too small to hold a single value. */
+    public void setChannel(WritableByteChannel channel, Encoding encoding, int bufferSize) throws IOException {
+        if (channel == null)
+            throw new NullPointerException("channel");
+        boolean primitive = connection instanceof LongConnection || connection instanceof DoubleConnection;
+        if (encoding == Encoding.BINARY && !primitive)
+            throw new IllegalArgumentException(getName() + " can only write " + clazz.getSimpleName() + " as text!");
+        if (bufferSize < 32)
+            throw new IllegalArgumentException("The buffer must be at least 32 bytes, but was " + bufferSize);
+        flush();
+        this.channel = channel;
+        this.encoding = encoding;
+        if (buffer == null || buffer.capacity() != bufferSize)
+            buffer = ByteBuffer.allocateDirect(bufferSize);
+    }
+
+    /** Sets what is written after every value when the encoding is {@link Encoding#TEXT}. Defaults to "\n". */
+    public void setDelimiter(String delimiter) {
+        this.delimiter = delimiter.getBytes(StandardCharsets.UTF_8);
+    }
+
+    /** @return The number of values that have been written since this was created (including any that are still
+     *         buffered). */
+    public long getWrittenCount() {
+        return written;
+    }
+
+    /** Evaluates the graph until either count values have been written or the graph stops computing values, and then
+     * flushes the buffer to the channel. Give this {@link Long#MAX_VALUE} to write everything that the graph can
+     * compute, for example until an {@link InputNode} runs out.
+     *
+     * @return The number of values that were written. */
+    public long drain(long count) throws IOException {
+        if (channel == null)
+            throw new IllegalStateException("No channel has been set for " + getName());
+        long start = written;
+        remaining = count;
+        try {
+            while (remaining > 0) {
+                long before = written;
+                connection.requestUpTo((int) Math.min(remaining, Math.min(CHUNK, connection.getCapacity())));
+                getGraph().iterate(this);
+                if (written == before)
+                    break;
+            }
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        } finally {
+            remaining = 0;
+        }
+        flush();
+        return written - start;
+    }
+
+    /** Writes everything that has been buffered to the channel. */
+    public void flush() throws IOException {
+        if (buffer == null || buffer.position() == 0)
+            return;
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    /** Makes sure the buffer has at least the given number of bytes free. */
+    private void ensureSpace(int bytes) {
+        if (buffer.remaining() < bytes) {
+            try {
+                flush();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    @Override
+    protected boolean computeNext() {
+        if (channel == null)
+            throw new IllegalStateException("No channel has been set for " + getName());
+        int count;
+        while ((count = (int) Math.min(remaining, Math.min(CHUNK, connection.getRemainingElements()))) > 0) {
+            if (connection instanceof LongConnection) {
+                if (longs == null)
+                    longs = new long[CHUNK];
+                ((LongConnection) connection).popLongs(longs, 0, count);
+                writeLongs(count);
+            } else if (connection instanceof DoubleConnection) {
+                if (doubles == null)
+                    doubles = new double[CHUNK];
+                ((DoubleConnection) connection).popDoubles(doubles, 0, count);
+                writeDoubles(count);
+            } else {
+                for (int i = 0; i < count; i++) {
+                    writeText(String.valueOf(connection.pop()));
+                }
+            }
+            written += count;
+            remaining -= count;
+        }
+        // Nothing was pushed to any outputs (as this doesn't have any)
+        return false;
+    }
+
+    private void writeLongs(int count) {
+        if (encoding == Encoding.BINARY) {
+            int done = 0;
+            while (done < count) {
+                ensureSpace(8);
+                int n = Math.min(count - done, buffer.remaining() / 8);
+                buffer.asLongBuffer().put(longs, done, n);
+                buffer.position(buffer.position() + n * 8);
+                done += n;
+            }
+        } else {
+            for (int i = 0; i < count; i++) {
+                long value = longs[i];
+                if (value == Long.MIN_VALUE || digits.length + delimiter.length > buffer.capacity()) {
+                    writeText(Long.toString(value));
+                    continue;
+                }
+                ensureSpace(digits.length + delimiter.length);
+                int pos = digits.length;
+                long abs = Math.abs(value);
+                do {
+                    digits[--pos] = (byte) ('0' + abs % 10);
+                    abs /= 10;
+                } while (abs != 0);
+                if (value < 0)
+                    digits[--pos] = '-';
+                buffer.put(digits, pos, digits.length - pos);
+                buffer.put(delimiter);
+            }
+        }
+    }
+
+    private void writeDoubles(int count) {
+        if (encoding == Encoding.BINARY) {
+            int done = 0;
+            while (done < count) {
+                ensureSpace(8);
+                int n = Math.min(count - done, buffer.remaining() / 8);
+                buffer.asDoubleBuffer().put(doubles, done, n);
+                buffer.position(buffer.position() + n * 8);
+                done += n;
+            }
+        } else {
+            for (int i = 0; i < count; i++) {
+                writeText(Double.toString(doubles[i]));
+            }
+        }
+    }
+
+    private void writeText(String value) {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        int length = bytes.length + delimiter.length;
+        if (length > buffer.capacity()) {
+            // Too big to ever fit, so write it straight to the channel instead
+            try {
+                flush();
+                ByteBuffer direct = ByteBuffer.allocate(length).put(bytes).put(delimiter);
+                direct.flip();
+                while (direct.hasRemaining()) {
+                    channel.write(direct);
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return;
+        }
+        ensureSpace(length);
+        buffer.put(bytes);
+        buffer.put(delimiter);
+    }
+}
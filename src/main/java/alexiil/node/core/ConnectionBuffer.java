@@ -0,0 +1,310 @@
+/* Copyright (c) 2015 AlexIIL
+ *
+ * See the file "LICENSE" for copying permission. */
+package alexiil.node.core;
+
+import java.util.Arrays;
+
+/** The state of a single {@link NodeGraph.GraphConnection}: a FIFO ring buffer of the elements that have been pushed
+ * to it but not popped, and the number of elements that have been requested but not yet pushed.
+ *
+ * Bounded buffers allocate all of their space the first time anything is pushed to them, so the memory used per
+ * connection is fixed. Unbounded buffers start small and double whenever they fill up.
+ *
+ * Only the pushing side writes to the tail and only the popping side writes to the head, so a bounded buffer can be
+ * pushed to by one thread while a different thread pops from it. Unbounded buffers (and {@link #requested}) must only
+ * ever be used by one thread at a time.
+ *
+ * @author AlexIIL */
+abstract class ConnectionBuffer {
+    static final int UNBOUNDED = Integer.MAX_VALUE;
+    static final int MAX_BOUNDED_CAPACITY = 1 << 30;
+    private static final int INITIAL_SIZE = 8;
+
+    /** The maximum number of elements this can hold. */
+    final int capacity;
+    /** The total number of elements that have ever been taken from (head) and put into (tail) this buffer. Only the
+     * difference between them matters so they are allowed to overflow. The backing array is always a power of 2 long,
+     * so the array index is found by masking. These are written with full volatile stores (and not lazily) so that a
+     * streaming node that reads {@link StreamingPipeline} state straight after changing them can't miss a wake up. */
+    private volatile int head, tail;
+    int requested;
+
+    ConnectionBuffer(int capacity) {
+        if (capacity <= 0)
+            throw new IllegalArgumentException("Capacity must be positive, but was " + capacity);
+        if (capacity > MAX_BOUNDED_CAPACITY && capacity != UNBOUNDED)
+            throw new IllegalArgumentException("Capacity must be at most " + MAX_BOUNDED_CAPACITY + ", but was " + capacity);
+        this.capacity = capacity;
+    }
+
+    /** @return A new, empty buffer that holds the same type of elements as this. */
+    abstract ConnectionBuffer newEmpty(int newCapacity);
+
+    final int size() {
+        return tail - head;
+    }
+
+    final int freeSpace() {
+        return capacity - size();
+    }
+
+    /** @return The index that the next count elements should be put from, after growing the backing array if needed.
+     *         The elements wrap around to the start of the array if they don't fit before the end. They are only
+     *         visible to the taking side after {@link #commitPut(int)} has been called. */
+    final int putIndex(int count) {
+        int t = tail;
+        int size = t - head;
+        int length = length();
+        if (count > capacity - size || count > MAX_BOUNDED_CAPACITY - size)
+            throw new IllegalStateException("The buffer is full! (" + size + " elements, tried to add " + count + ")");
+        if (size + count > length) {
+            int newLength;
+            if (capacity != UNBOUNDED) {
+                newLength = capacity == 1 ? 1 : Integer.highestOneBit(capacity - 1) << 1;
+            } else {
+                newLength = length == 0 ? INITIAL_SIZE : length * 2;
+                while (newLength < size + count) {
+                    newLength *= 2;
+                }
+            }
+            resize(newLength);
+            length = newLength;
+        }
+        return t & (length - 1);
+    }
+
+    final void commitPut(int count) {
+        tail += count;
+    }
+
+    /** @return The index of the next count elements to take. The space is only given back to the putting side after
+     *         {@link #commitTake(int)} has been called. */
+    final int takeIndex(int count) {
+        int h = head;
+        if (tail - h < count)
+            throw new IllegalStateException("Not enough elements! (" + (tail - h) + " elements, tried to take " + count + ")");
+        return h & (length() - 1);
+    }
+
+    final void commitTake(int count) {
+        head += count;
+    }
+
+    /** Copies every current element of the array "from" into the same logical position in the array "to". */
+    final <A> A moved(A from, A to, int toLength) {
+        int h = head, size = tail - h;
+        int fromMask = length() - 1, toMask = toLength - 1;
+        for (int i = 0; i < size; i++) {
+            System.arraycopy(from, (h + i) & fromMask, to, (h + i) & toMask, 1);
+        }
+        return to;
+    }
+
+    /** Copies the current elements of the array "from" (in order) into the start of the array "to". */
+    final <A> A ordered(A from, A to) {
+        int h = head, size = tail - h;
+        int mask = length() - 1;
+        for (int i = 0; i < size; i++) {
+            System.arraycopy(from, (h + i) & mask, to, i, 1);
+        }
+        return to;
+    }
+
+    /** Replaces the backing array with a new one of the given length (always a power of 2), keeping every element. */
+    abstract void resize(int newLength);
+
+    abstract int length();
+
+    abstract void put(Object val);
+
+    abstract Object take();
+
+    abstract String elementsToString();
+
+    static final class OfObject<E> extends ConnectionBuffer {
+        private Object[] elements = new Object[0];
+
+        OfObject(int capacity) {
+            super(capacity);
+        }
+
+        @Override
+        OfObject<E> newEmpty(int newCapacity) {
+            return new OfObject<>(newCapacity);
+        }
+
+        @Override
+        int length() {
+            return elements.length;
+        }
+
+        @Override
+        void resize(int newLength) {
+            elements = moved(elements, new Object[newLength], newLength);
+        }
+
+        @Override
+        void put(Object val) {
+            // Resizing replaces the array, so this must be done before the array is read
+            int index = putIndex(1);
+            elements[index] = val;
+            commitPut(1);
+        }
+
+        @SuppressWarnings("unchecked")
+        @Override
+        E take() {
+            int index = takeIndex(1);
+            E val = (E) elements[index];
+            elements[index] = null;
+            commitTake(1);
+            return val;
+        }
+
+        @Override
+        String elementsToString() {
+            return Arrays.toString(ordered(elements, new Object[size()]));
+        }
+    }
+
+    static final class OfLong extends ConnectionBuffer {
+        private long[] elements = new long[0];
+
+        OfLong(int capacity) {
+            super(capacity);
+        }
+
+        @Override
+        OfLong newEmpty(int newCapacity) {
+            return new OfLong(newCapacity);
+        }
+
+        @Override
+        int length() {
+            return elements.length;
+        }
+
+        @Override
+        void resize(int newLength) {
+            elements = moved(elements, new long[newLength], newLength);
+        }
+
+        void putLong(long val) {
+            int index = putIndex(1);
+            elements[index] = val;
+            commitPut(1);
+        }
+
+        long takeLong() {
+            long val = elements[takeIndex(1)];
+            commitTake(1);
+            return val;
+        }
+
+        void putLongs(long[] from, int offset, int count) {
+            if (count == 0)
+                return;
+            int index = putIndex(count);
+            int first = Math.min(count, elements.length - index);
+            System.arraycopy(from, offset, elements, index, first);
+            System.arraycopy(from, offset + first, elements, 0, count - first);
+            commitPut(count);
+        }
+
+        void takeLongs(long[] to, int offset, int count) {
+            if (count == 0)
+                return;
+            int index = takeIndex(count);
+            int first = Math.min(count, elements.length - index);
+            System.arraycopy(elements, index, to, offset, first);
+            System.arraycopy(elements, 0, to, offset + first, count - first);
+            commitTake(count);
+        }
+
+        @Override
+        void put(Object val) {
+            putLong((Long) val);
+        }
+
+        @Override
+        Long take() {
+            return takeLong();
+        }
+
+        @Override
+        String elementsToString() {
+            return Arrays.toString(ordered(elements, new long[size()]));
+        }
+    }
+
+    static final class OfDouble extends ConnectionBuffer {
+        private double[] elements = new double[0];
+
+        OfDouble(int capacity) {
+            super(capacity);
+        }
+
+        @Override
+        OfDouble newEmpty(int newCapacity) {
+            return new OfDouble(newCapacity);
+        }
+
+        @Override
+        int length() {
+            return elements.length;
+        }
+
+        @Override
+        void resize(int newLength) {
+            elements = moved(elements, new double[newLength], newLength);
+        }
+
+        void putDouble(double val) {
+            int index = putIndex(1);
+            elements[index] = val;
+            commitPut(1);
+        }
+
+        double takeDouble() {
+            double val = elements[takeIndex(1)];
+            commitTake(1);
+            return val;
+        }
+
+        void putDoubles(double[] from, int offset, int count) {
+            if (count == 0)
+                return;
+            int index = putIndex(count);
+            int first = Math.min(count, elements.length - index);
+            System.arraycopy(from, offset, elements, index, first);
+            System.arraycopy(from, offset + first, elements, 0, count - first);
+            commitPut(count);
+        }
+
+        void takeDoubles(double[] to, int offset, int count) {
+            if (count == 0)
+                return;
+            int index = takeIndex(count);
+            int first = Math.min(count, elements.length - index);
+            System.arraycopy(elements, index, to, offset, first);
+            System.arraycopy(elements, 0, to, offset + first, count - first);
+            commitTake(count);
+        }
+
+        @Override
+        void put(Object val) {
+            putDouble((Double) val);
+        }
+
+        @Override
+        Double take() {
+            return takeDouble();
+        }
+
+        @Override
+        String elementsToString() {
+            return Arrays.toString(ordered(elements, new double[size()]));
+        }
+    }
+}
@@ -0,0 +1,98 @@
+/* Copyright (c) 2015 AlexIIL
+ *
+ * See the file "LICENSE" for copying permission. */
+package alexiil.node.core;
+
+import java.util.Arrays;
+import java.util.Map;
+
+import com.google.common.collect.Maps;
+
+import alexiil.node.core.SharedGraph.Target;
+
+/** The state of a single evaluation of a {@link SharedGraph}. Only one thread can use a context at a time, but once it
+ * is {@link #close() closed} the graph hands it out again, so the buffers in it are reused.
+ *
+ * @author AlexIIL */
+public final class ExecutionContext implements AutoCloseable {
+    private final SharedGraph shared;
+    /** The value of every output of every node, by slot. */
+    private final Object[] values;
+    /** The map that is passed to each node's {@link INodeFoldable#fold(Map)}, created the first time it is needed. */
+    private final Map<String, Object>[] inputs;
+    /** The copy of the graph to evaluate return nodes that can't be folded with, or null if none have been yet. */
+    private NodeGraph graph;
+    /** True if an evaluation failed part way through, so the copied graph might still hold elements from it. */
+    private boolean broken;
+
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    ExecutionContext(SharedGraph shared) {
+        this.shared = shared;
+        values = new Object[shared.slotCount];
+        inputs = new Map[shared.nodes.size()];
+    }
+
+    /** Evaluates the given return node once. Folded and normally evaluated return nodes fail in the same way: with an
+     * {@link IllegalStateException} caused by whatever the node that failed threw.
+     *
+     * @throws IllegalArgumentException if the graph doesn't have a return node with the given name.
+     * @throws IllegalStateException if the graph couldn't be evaluated.
+     * @throws ClassCastException if the value isn't of the given type. */
+    public <V> V get(String returnName, Class<V> type) {
+        Target target = shared.getTarget(returnName);
+        Object value;
+        try {
+            if (target.order == null) {
+                if (graph == null)
+                    graph = shared.template.copy();
+                // This already wraps anything thrown while evaluating in an IllegalStateException
+                value = ((ReturnNode<?>) graph.getNode(returnName)).get();
+            } else {
+                try {
+                    for (int id : target.order) {
+                        fold(id);
+                    }
+                } catch (RuntimeException e) {
+                    throw new IllegalStateException("Could not GET for " + returnName, e);
+                }
+                value = values[target.slot];
+            }
+        } catch (RuntimeException e) {
+            broken = true;
+            throw e;
+        }
+        return type.cast(value);
+    }
+
+    private void fold(int id) {
+        Map<String, Object> in = inputs[id];
+        if (in == null)
+            inputs[id] = in = Maps.newHashMap();
+        String[] inputNames = shared.inputNames[id];
+        int[] inputSlots = shared.inputSlots[id];
+        for (int i = 0; i < inputNames.length; i++) {
+            in.put(inputNames[i], values[inputSlots[i]]);
+        }
+        INodeFoldable node = (INodeFoldable) shared.nodes.get(id);
+        Map<String, Object> out = node.fold(in);
+        String[] outputNames = shared.outputNames[id];
+        int slot = shared.outputSlot[id];
+        for (int i = 0; i < outputNames.length; i++) {
+            values[slot + i] = out.get(outputNames[i]);
+        }
+    }
+
+    /** Gives this back to the graph it came from, so it can be used again. This must not be used after it has been
+     * closed. */
+    @Override
+    public void close() {
+        // Don't keep the values alive while this is sat in the pool
+        Arrays.fill(values, null);
+        for (Map<String, Object> in : inputs) {
+            if (in != null)
+                in.clear();
+        }
+        if (!broken)
+            shared.release(this);
+    }
+}
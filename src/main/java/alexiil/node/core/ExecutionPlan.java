@@ -0,0 +1,177 @@
+/* Copyright (c) 2015 AlexIIL
+ *
+ * See the file "LICENSE" for copying permission. */
+package alexiil.node.core;
+
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+import alexiil.node.core.NodeGraph.GraphConnection;
+
+/** An immutable, pre-computed schedule for a {@link NodeGraph}. This is created by {@link NodeGraph#compile()} and is
+ * thrown away whenever a node or connection is added to the graph.
+ *
+ * Evaluating a node only ever visits the nodes that it (indirectly) depends on: every request makes a single demand
+ * pass (bottom up) and a single compute pass (top down) over that set.
+ *
+ * @author AlexIIL */
+public final class ExecutionPlan {
+    private final INode[] order;
+    /** The index of every node in {@link #order}. This is a copy of the graph's ids (rather than the map itself) so that
+     * plans can be read from any thread while the graph is changed. */
+    private final Map<INode, Integer> ids;
+    private final GraphTopology topology;
+    private final int[] levels;
+    private final int[] fullSchedule;
+    /** Lazily populated cache of {@link #getSchedule(int)} */
+    private final int[][] schedules;
+
+    ExecutionPlan(INode[] order, GraphTopology topology) {
+        // NodeGraph.connectIO only allows connections from earlier nodes to later ones, so the insertion order (which
+        // is also the id order) is already a valid topological order.
+        this.order = order;
+        ids = new IdentityHashMap<>(order.length);
+        this.topology = topology;
+        levels = new int[order.length];
+        schedules = new int[order.length][];
+        fullSchedule = new int[order.length];
+        int[] upstreamStart = topology.upstreamStart, upstream = topology.upstream;
+        for (int i = 0; i < order.length; i++) {
+            ids.put(order[i], i);
+            fullSchedule[i] = i;
+            int level = 0;
+            for (int u = upstreamStart[i]; u < upstreamStart[i + 1]; u++) {
+                level = Math.max(level, levels[upstream[u]] + 1);
+            }
+            levels[i] = level;
+        }
+    }
+
+    /** @return The number of nodes in this plan. */
+    public int size() {
+        return order.length;
+    }
+
+    /** @return The node at the given position in the topological order. */
+    public INode getNode(int index) {
+        return order[index];
+    }
+
+    /** @return The position of the given node in the topological order, or -1 if this plan does not contain it. */
+    public int indexOf(INode node) {
+        Integer index = ids.get(node);
+        return index == null ? -1 : index;
+    }
+
+    /** @return The indices of every node that directly feeds an input of the node at the given index. */
+    public int[] getUpstream(int index) {
+        return topology.getUpstream(index);
+    }
+
+    /** @return The indices of every node that has an input connected to one of the outputs of the node at the given
+     *         index. */
+    public int[] getDownstream(int index) {
+        return topology.getDownstream(index);
+    }
+
+    /** @return The dependency level of the node at the given index: 0 for nodes without any connected inputs, or one
+     *         more than the highest level of any node that feeds it. Nodes with the same level never depend on each
+     *         other, so they can be computed at the same time. */
+    public int getLevel(int index) {
+        return levels[index];
+    }
+
+    /** @return The indices (in topological order) of every node that must be evaluated to compute the node at the given
+     *         index, including that node itself. */
+    public int[] getSchedule(int index) {
+        return schedule(index).clone();
+    }
+
+    int[] fullSchedule() {
+        return fullSchedule;
+    }
+
+    int[] schedule(int target) {
+        int[] schedule = schedules[target];
+        if (schedule == null) {
+            schedule = computeSchedule(target);
+            schedules[target] = schedule;
+        }
+        return schedule;
+    }
+
+    /** @return Every node that any of the targets needs, in topological order. */
+    int[] schedule(int[] targets) {
+        if (targets.length == 1)
+            return schedule(targets[0]);
+        boolean[] needed = new boolean[order.length];
+        int count = 0;
+        for (int target : targets) {
+            for (int index : schedule(target)) {
+                if (!needed[index]) {
+                    needed[index] = true;
+                    count++;
+                }
+            }
+        }
+        int[] schedule = new int[count];
+        count = 0;
+        for (int i = 0; i < needed.length; i++) {
+            if (needed[i])
+                schedule[count++] = i;
+        }
+        return schedule;
+    }
+
+    private int[] computeSchedule(int target) {
+        // Everything upstream of the target has a lower id, so only those need to be tracked
+        boolean[] visited = new boolean[target + 1];
+        int[] stack = new int[target + 1];
+        int[] found = new int[target + 1];
+        int[] upstreamStart = topology.upstreamStart, upstream = topology.upstream;
+        int stackSize = 0, count = 0;
+        stack[stackSize++] = target;
+        visited[target] = true;
+        while (stackSize > 0) {
+            int index = stack[--stackSize];
+            found[count++] = index;
+            for (int u = upstreamStart[index]; u < upstreamStart[index + 1]; u++) {
+                int up = upstream[u];
+                if (!visited[up]) {
+                    visited[up] = true;
+                    stack[stackSize++] = up;
+                }
+            }
+        }
+        int[] schedule = Arrays.copyOf(found, count);
+        Arrays.sort(schedule);
+        return schedule;
+    }
+
+    /** Asks the node at the given index for everything it needs and then passes those requests on to the outputs that
+     * feed it. As every consumer of an output comes after its producer this only needs to happen once per node, in
+     * reverse order. */
+    public void demand(int index) {
+        INode node = order[index];
+        node.askForElements();
+        for (GraphConnection<?> conn : node.getInputs().values()) {
+            if (conn == null || conn.getRequestedElements() <= 0)
+                continue;
+            GraphConnection<?> out = conn.connectedOutput;
+            if (out == null)
+                continue;
+            int max = out.getRequestedElements();
+            for (GraphConnection<?> conn2 : out.connectedInputs) {
+                max = Math.max(max, conn2.getRequestedElements());
+            }
+            out.requestUpTo(max);
+        }
+    }
+
+    /** Computes the node at the given index for as long as it has enough inputs to do so. */
+    public void compute(int index) {
+        INode node = order[index];
+        while (node.computeIfCan()) {}
+    }
+}
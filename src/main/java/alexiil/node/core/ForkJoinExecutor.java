@@ -0,0 +1,103 @@
+/* Copyright (c) 2015 AlexIIL
+ *
+ * See the file "LICENSE" for copying permission. */
+package alexiil.node.core;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/** A {@link GraphExecutor} that computes independent nodes at the same time on a {@link ForkJoinPool}.
+ * 
+ * The demand pass is still done on the calling thread, as it is cheap. The compute pass is split up into the
+ * {@link ExecutionPlan#getLevel(int) levels} of the plan: every node in a level is computed (in parallel) before any
+ * node in the next level starts. Nodes within a level never share a connection buffer- each input is only written to by
+ * the (lower level) node that feeds it- and joining the tasks of a level makes everything they pushed visible to the
+ * next level.
+ * 
+ * Every node used by a graph that is given this executor must be safe to compute on a different thread from the one
+ * that created it.
+ * 
+ * @author AlexIIL */
+public class ForkJoinExecutor implements GraphExecutor {
+    private final ForkJoinPool pool;
+    private final int minNodesPerTask;
+
+    /** Creates an executor that uses the {@link ForkJoinPool#commonPool() common pool}. */
+    public ForkJoinExecutor() {
+        this(ForkJoinPool.commonPool(), 16);
+    }
+
+    /** @param pool The pool to compute nodes on.
+     * @param minNodesPerTask The smallest number of nodes to give to each task. Most nodes are very quick to compute,
+     *            so giving every node its own task would spend more time scheduling than computing. Levels with fewer
+     *            nodes than this are computed on the calling thread. */
+    public ForkJoinExecutor(ForkJoinPool pool, int minNodesPerTask) {
+        if (minNodesPerTask <= 0)
+            throw new IllegalArgumentException("minNodesPerTask must be positive, but was " + minNodesPerTask);
+        this.pool = pool;
+        this.minNodesPerTask = minNodesPerTask;
+    }
+
+    @Override
+    public void execute(ExecutionPlan plan, int[] schedule) {
+        for (int i = schedule.length - 1; i >= 0; i--) {
+            plan.demand(schedule[i]);
+        }
+
+        // Group the schedule by level (a counting sort, so each level stays in topological order)
+        int maxLevel = 0;
+        for (int index : schedule) {
+            maxLevel = Math.max(maxLevel, plan.getLevel(index));
+        }
+        int[] levelStarts = new int[maxLevel + 2];
+        for (int index : schedule) {
+            levelStarts[plan.getLevel(index) + 1]++;
+        }
+        for (int level = 0; level <= maxLevel; level++) {
+            levelStarts[level + 1] += levelStarts[level];
+        }
+        int[] byLevel = new int[schedule.length];
+        int[] next = levelStarts.clone();
+        for (int index : schedule) {
+            byLevel[next[plan.getLevel(index)]++] = index;
+        }
+
+        for (int level = 0; level <= maxLevel; level++) {
+            int from = levelStarts[level], to = levelStarts[level + 1];
+            if (to - from < minNodesPerTask * 2) {
+                for (int i = from; i < to; i++) {
+                    plan.compute(byLevel[i]);
+                }
+            } else {
+                pool.invoke(new ComputeTask(plan, byLevel, from, to));
+            }
+        }
+    }
+
+    private class ComputeTask extends RecursiveAction {
+        private static final long serialVersionUID = 2907296946213957421L;
+
+        private final ExecutionPlan plan;
+        private final int[] nodes;
+        private final int from, to;
+
+        ComputeTask(ExecutionPlan plan, int[] nodes, int from, int to) {
+            this.plan = plan;
+            this.nodes = nodes;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from < minNodesPerTask * 2) {
+                for (int i = from; i < to; i++) {
+                    plan.compute(nodes[i]);
+                }
+            } else {
+                int middle = (from + to) >>> 1;
+                invokeAll(new ComputeTask(plan, nodes, from, middle), new ComputeTask(plan, nodes, middle, to));
+            }
+        }
+    }
+}
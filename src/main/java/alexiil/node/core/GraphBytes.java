@@ -0,0 +1,395 @@
+/* Copyright (c) 2015 AlexIIL
+ *
+ * See the file "LICENSE" for copying permission. */
+package alexiil.node.core;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+import alexiil.node.core.NodeGraph.GraphConnection;
+
+/** Reads and writes graphs in the {@link GraphReader.SaveType#BYTES_COMPACT} binary format. The format is:
+ *
+ * <pre>
+ * varint registryCount, string[registryCount] packageNames
+ * varint typeCount, (varint registry, string tag)[typeCount]
+ * varint stringCount, string[stringCount] portNames
+ * varint nodeCount, node[nodeCount]
+ *
+ * node:
+ *   varint type
+ *   string name
+ *   varint dataCount, value[dataCount] (only for {@link INodeAdditionalData} nodes)
+ *   varint inputCount, (varint inPort, varint nodesBack, varint outPort)[inputCount]
+ *
+ * value:
+ *   byte kind, then either a zigzag varint (LONG), 8 bytes (DOUBLE) or a string (STRING)
+ * </pre>
+ *
+ * Every varint is an unsigned LEB128 number. Strings are a varint of their UTF-8 length plus one (0 means null)
+ * followed by their UTF-8 bytes. Types and ports refer
+ * to their index in the dictionaries at the start, and inputs refer to the node they come from by how many nodes
+ * before this one it is (which is always positive, and usually small). Only connected inputs are written.
+ *
+ * @author AlexIIL */
+public class GraphBytes {
+    private static final int VALUE_STRING = 0, VALUE_LONG = 1, VALUE_DOUBLE = 2;
+
+    public static NodeGraph read(InputStream stream) throws IOException {
+        return read(new StreamInput(new DataInputStream(new BufferedInputStream(stream))));
+    }
+
+    /** Reads a graph straight out of the buffer, starting at its current position. The position is left just after the
+     * end of the graph. This never copies the buffer, so a {@link java.nio.MappedByteBuffer} is read directly from the
+     * page cache. */
+    public static NodeGraph read(ByteBuffer buffer) throws IOException {
+        return read(new BufferInput(buffer));
+    }
+
+    private static NodeGraph read(Input in) throws IOException {
+        String[] packages = new String[readCount(in)];
+        for (int i = 0; i < packages.length; i++) {
+            packages[i] = readString(in);
+        }
+
+        NodeRegistry[] typeRegistries = new NodeRegistry[readCount(in)];
+        String[] typeTags = new String[typeRegistries.length];
+        for (int i = 0; i < typeTags.length; i++) {
+            int registryIndex = readIndex(in, packages.length);
+            NodeRegistry registry = NodeRegistry.getRegistry(packages[registryIndex]);
+            if (registry == null)
+                throw new IOException("Unknown registry " + packages[registryIndex]);
+            typeRegistries[i] = registry;
+            typeTags[i] = readString(in);
+        }
+        // Only looked up the first time they are used
+        INode[] prototypes = new INode[typeTags.length];
+
+        String[] strings = new String[readCount(in)];
+        for (int i = 0; i < strings.length; i++) {
+            strings[i] = readString(in);
+        }
+
+        NodeGraph graph = new NodeGraph();
+        INode[] nodes = new INode[readCount(in)];
+        for (int nodeIndex = 0; nodeIndex < nodes.length; nodeIndex++) {
+            int type = readIndex(in, prototypes.length);
+            INode node = prototypes[type];
+            if (node == null) {
+                node = typeRegistries[type].getNodeType(typeTags[type], typeTags[type]);
+                if (node == null)
+                    throw new IOException("Unknown node type " + typeRegistries[type].packageName + ":" + typeTags[type]);
+                prototypes[type] = node;
+            }
+            String name = readString(in);
+
+            if (node instanceof INodeAdditionalData) {
+                INodeAdditionalData addNode = (INodeAdditionalData) node;
+                String[] data = new String[addNode.dataKeys().length];
+                int dataCount = readIndex(in, data.length + 1);
+                for (int i = 0; i < dataCount; i++) {
+                    data[i] = readValue(in);
+                }
+                node = addNode.modify(data);
+            }
+            node = graph.addCopyOf(node, name);
+            nodes[nodeIndex] = node;
+
+            int inputCount = readCount(in);
+            for (int i = 0; i < inputCount; i++) {
+                String inName = strings[readIndex(in, strings.length)];
+                int back = readVarInt(in);
+                if (back <= 0 || back > nodeIndex)
+                    throw new IOException("Input " + inName + " of " + name + " refers to an invalid node (" + back + " back)");
+                String outName = strings[readIndex(in, strings.length)];
+                graph.connectIO(nodes[nodeIndex - back], outName, node, inName);
+            }
+        }
+        return graph;
+    }
+
+    public static void write(NodeGraph graph, OutputStream stream) throws IOException {
+        List<INode> nodes = graph.getNodes();
+
+        // Build up the dictionaries first, so that each node can be written out in a single pass afterwards
+        Map<String, Integer> packages = Maps.newLinkedHashMap();
+        Map<NodeRegistry, Map<String, Integer>> types = Maps.newHashMap();
+        List<NodeRegistry> typeRegistries = Lists.newArrayList();
+        List<String> typeTags = Lists.newArrayList();
+        Map<String, Integer> strings = Maps.newLinkedHashMap();
+        for (INode node : nodes) {
+            NodeRegistry registry = node.getRegistry();
+            if (!packages.containsKey(registry.packageName))
+                packages.put(registry.packageName, packages.size());
+            Map<String, Integer> tags = types.computeIfAbsent(registry, r -> Maps.newHashMap());
+            if (!tags.containsKey(node.getTypeTag())) {
+                tags.put(node.getTypeTag(), typeTags.size());
+                typeRegistries.add(registry);
+                typeTags.add(node.getTypeTag());
+            }
+            for (GraphConnection<?> in : node.getInputs().values()) {
+                if (in == null || in.connectedOutput == null)
+                    continue;
+                strings.putIfAbsent(in.getName(), strings.size());
+                strings.putIfAbsent(in.connectedOutput.getName(), strings.size());
+            }
+        }
+
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream));
+        writeVarInt(out, packages.size());
+        for (String packageName : packages.keySet()) {
+            writeString(out, packageName);
+        }
+        writeVarInt(out, typeTags.size());
+        for (int i = 0; i < typeTags.size(); i++) {
+            writeVarInt(out, packages.get(typeRegistries.get(i).packageName));
+            writeString(out, typeTags.get(i));
+        }
+        writeVarInt(out, strings.size());
+        for (String string : strings.keySet()) {
+            writeString(out, string);
+        }
+
+        writeVarInt(out, nodes.size());
+        for (int nodeIndex = 0; nodeIndex < nodes.size(); nodeIndex++) {
+            INode node = nodes.get(nodeIndex);
+            writeVarInt(out, types.get(node.getRegistry()).get(node.getTypeTag()));
+            writeString(out, node.getName());
+
+            if (node instanceof INodeAdditionalData) {
+                String[] data = ((INodeAdditionalData) node).addtionalData();
+                writeVarInt(out, data.length);
+                for (String value : data) {
+                    writeValue(out, value);
+                }
+            }
+
+            int inputCount = 0;
+            for (GraphConnection<?> in : node.getInputs().values()) {
+                if (in != null && in.connectedOutput != null)
+                    inputCount++;
+            }
+            writeVarInt(out, inputCount);
+            for (GraphConnection<?> in : node.getInputs().values()) {
+                if (in == null || in.connectedOutput == null)
+                    continue;
+                writeVarInt(out, strings.get(in.getName()));
+                writeVarInt(out, nodeIndex - graph.idOf(in.connectedOutput.getNode()));
+                writeVarInt(out, strings.get(in.connectedOutput.getName()));
+            }
+        }
+        out.flush();
+    }
+
+    // Values
+
+    /** Writes the value as a number if it is exactly what {@link Long#toString()} or {@link Double#toString()} would
+     * produce for that number, so it can be read back in as exactly the same string. */
+    private static void writeValue(DataOutputStream out, String value) throws IOException {
+        if (value != null) {
+            try {
+                long l = Long.parseLong(value);
+                if (Long.toString(l).equals(value)) {
+                    out.writeByte(VALUE_LONG);
+                    writeVarLong(out, (l << 1) ^ (l >> 63));
+                    return;
+                }
+            } catch (NumberFormatException ignored) {}
+            try {
+                double d = Double.parseDouble(value);
+                if (Double.toString(d).equals(value)) {
+                    out.writeByte(VALUE_DOUBLE);
+                    out.writeDouble(d);
+                    return;
+                }
+            } catch (NumberFormatException ignored) {}
+        }
+        out.writeByte(VALUE_STRING);
+        writeString(out, value);
+    }
+
+    private static String readValue(Input in) throws IOException {
+        int kind = in.readUnsignedByte();
+        switch (kind) {
+            case VALUE_STRING:
+                return readString(in);
+            case VALUE_LONG: {
+                long zigzag = readVarLong(in);
+                return Long.toString((zigzag >>> 1) ^ -(zigzag & 1));
+            }
+            case VALUE_DOUBLE:
+                return Double.toString(in.readDouble());
+            default:
+                throw new IOException("Unknown value kind " + kind);
+        }
+    }
+
+    // Primitives
+
+    static void writeVarInt(DataOutputStream out, int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            out.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+    static int readVarInt(Input in) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            int b = in.readUnsignedByte();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0)
+                return value;
+        }
+        throw new IOException("Varint was too long!");
+    }
+
+    static void writeVarLong(DataOutputStream out, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.writeByte((int) (value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+
+    static long readVarLong(Input in) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 70; shift += 7) {
+            int b = in.readUnsignedByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0)
+                return value;
+        }
+        throw new IOException("Varlong was too long!");
+    }
+
+    /** Strings are written as their UTF-8 length + 1, so that 0 can mean null. */
+    static void writeString(DataOutputStream out, String string) throws IOException {
+        if (string == null) {
+            writeVarInt(out, 0);
+            return;
+        }
+        byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+        writeVarInt(out, bytes.length + 1);
+        out.write(bytes);
+    }
+
+    static String readString(Input in) throws IOException {
+        int length = readVarInt(in) - 1;
+        if (length == -1)
+            return null;
+        if (length < 0)
+            throw new IOException("Invalid string length " + length);
+        return in.readUtf8(length);
+    }
+
+    private static int readCount(Input in) throws IOException {
+        int count = readVarInt(in);
+        if (count < 0)
+            throw new IOException("Invalid count " + count);
+        return count;
+    }
+
+    /** Reads an index that must be less than the given bound. */
+    private static int readIndex(Input in, int bound) throws IOException {
+        int index = readVarInt(in);
+        if (index < 0 || index >= bound)
+            throw new IOException("Index " + index + " was out of bounds (" + bound + ")");
+        return index;
+    }
+
+    /** Where the bytes being read come from, so that the same reading code works for both streams and buffers. */
+    static abstract class Input {
+        abstract int readUnsignedByte() throws IOException;
+
+        abstract double readDouble() throws IOException;
+
+        abstract String readUtf8(int length) throws IOException;
+    }
+
+    private static final class StreamInput extends Input {
+        private final DataInputStream in;
+
+        StreamInput(DataInputStream in) {
+            this.in = in;
+        }
+
+        @Override
+        int readUnsignedByte() throws IOException {
+            return in.readUnsignedByte();
+        }
+
+        @Override
+        double readDouble() throws IOException {
+            return in.readDouble();
+        }
+
+        @Override
+        String readUtf8(int length) throws IOException {
+            byte[] bytes = new byte[length];
+            in.readFully(bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+    }
+
+    private static final class BufferInput extends Input {
+        private final ByteBuffer buffer;
+        /** Only used for buffers without an accessible array (direct and mapped buffers). */
+        private byte[] scratch = new byte[64];
+
+        BufferInput(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        private void require(int count) throws EOFException {
+            if (buffer.remaining() < count)
+                throw new EOFException("Expected " + count + " more bytes, but the buffer only had " + buffer.remaining());
+        }
+
+        @Override
+        int readUnsignedByte() throws IOException {
+            require(1);
+            return buffer.get() & 0xFF;
+        }
+
+        @Override
+        double readDouble() throws IOException {
+            require(8);
+            // Written by a DataOutputStream, so always big endian whatever order the buffer is in
+            long bits = buffer.getLong();
+            if (buffer.order() != ByteOrder.BIG_ENDIAN)
+                bits = Long.reverseBytes(bits);
+            return Double.longBitsToDouble(bits);
+        }
+
+        @Override
+        String readUtf8(int length) throws IOException {
+            require(length);
+            if (buffer.hasArray()) {
+                String string = new String(buffer.array(), buffer.arrayOffset() + buffer.position(), length,
+                        StandardCharsets.UTF_8);
+                buffer.position(buffer.position() + length);
+                return string;
+            }
+            if (scratch.length < length)
+                scratch = new byte[Math.max(length, scratch.length * 2)];
+            buffer.get(scratch, 0, length);
+            return new String(scratch, 0, length, StandardCharsets.UTF_8);
+        }
+    }
+}
@@ -0,0 +1,27 @@
+/* Copyright (c) 2015 AlexIIL
+ *
+ * See the file "LICENSE" for copying permission. */
+package alexiil.node.core;
+
+/** Decides how (and on which threads) the nodes in an {@link ExecutionPlan} are evaluated. Set one for a graph with
+ * {@link NodeGraph#setExecutor(GraphExecutor)}.
+ * 
+ * @author AlexIIL */
+public interface GraphExecutor {
+    /** Evaluates every node on the calling thread: a single demand pass in reverse order followed by a single compute
+     * pass in topological order. */
+    GraphExecutor SEQUENTIAL = (plan, schedule) -> {
+        for (int i = schedule.length - 1; i >= 0; i--) {
+            plan.demand(schedule[i]);
+        }
+        for (int index : schedule) {
+            plan.compute(index);
+        }
+    };
+
+    /** Calls {@link ExecutionPlan#demand(int)} and then {@link ExecutionPlan#compute(int)} for every node in the
+     * schedule. A node must not be computed until every node before it in the schedule that it depends on has been.
+     * 
+     * @param schedule The indices of the nodes to evaluate, in topological order. This must not be modified. */
+    void execute(ExecutionPlan plan, int[] schedule);
+}
@@ -4,115 +4,225 @@
 package alexiil.node.core;
 
 import java.io.*;
+import java.nio.charset.StandardCharsets;
 import java.util.*;
 import java.util.Map.Entry;
 
-import com.google.gson.Gson;
-import com.google.gson.GsonBuilder;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
 
 import alexiil.node.core.NodeGraph.GraphConnection;
 
+/** Reads and writes graphs as JSON, one token at a time. Nodes are created (and connected) as soon as their object
+ * has been read, and written out as soon as they have been visited, so the whole document is never held in memory.
+ *
+ * The format is an object with a single "nodes" array, where every node looks like:
+ *
+ * <pre>
+ * {
+ *   "name": "adder",
+ *   "registryPackage": "math",
+ *   "tag": "LongAdder",
+ *   "inputs": [ { "inName": "a", "outName": "val", "otherNodeName": "four" } ],
+ *   "extraData": [ { "key": "value", "value": "4" } ]
+ * }
+ * </pre>
+ *
+ * Inputs can only refer to nodes that appear earlier in the array. */
 public class GraphJson {
     public static NodeGraph read(InputStream stream) throws IOException, ClassNotFoundException {
         NodeGraph graph = new NodeGraph();
-        JsonGraph jsonGraph = new Gson().fromJson(new InputStreamReader(stream), JsonGraph.class);
+        JsonReader reader = new JsonReader(new BufferedReader(new InputStreamReader(stream, StandardCharsets.UTF_8)));
+        // Graphs used to be read with Gson.fromJson, which is always lenient, so keep reading the hand edited files
+        // (with comments, unquoted names and so on) that it accepted
+        reader.setLenient(true);
 
         Map<String, INode> nodes = new HashMap<>();
 
-        for (JsonNode jNode : jsonGraph.nodes) {
-            if (nodes.containsKey(jNode.name))
-                throw new IOException("Found a second node with the name " + jNode.name);
-            NodeRegistry registry = NodeRegistry.getRegistry(jNode.registryPackage);
-            INode node = registry.getNodeType(jNode.tag, jNode.name);
-
-            if (node instanceof INodeAdditionalData) {
-                INodeAdditionalData addNode = (INodeAdditionalData) node;
-                String[] data = new String[addNode.dataKeys().length];
-                for (int i = 0; i < jNode.extraData.length; i++) {
-                    data[i] = jNode.extraData[i].value;
-                }
-                node = addNode.modify(data);
+        reader.beginObject();
+        while (reader.hasNext()) {
+            if (!reader.nextName().equals("nodes") || reader.peek() == JsonToken.NULL) {
+                reader.skipValue();
+                continue;
             }
-
-            nodes.put(jNode.name, graph.addCopyOf(node, jNode.name));
-        }
-
-        // Lastly go back through and connect up all of the nodes
-        for (JsonNode nodeJson : jsonGraph.nodes) {
-            if (nodeJson.inputs != null) {
-                INode node = graph.getNode(nodeJson.name);
-                for (JsonInput input : nodeJson.inputs) {
-                    INode fromNode = nodes.get(input.otherNodeName);
-                    graph.connectIO(fromNode, input.outName, node, input.inName);
-                }
+            reader.beginArray();
+            while (reader.hasNext()) {
+                readNode(reader, graph, nodes);
             }
+            reader.endArray();
         }
+        reader.endObject();
         return graph;
     }
 
-    public static void write(NodeGraph graph, OutputStream stream) throws IOException {
-        List<INode> nodes = graph.getNodes();
-        JsonGraph jsonGraph = new JsonGraph();
-        jsonGraph.nodes = new JsonNode[nodes.size()];
-        for (int nodeIndex = 0; nodeIndex < nodes.size(); nodeIndex++) {
-            INode node = nodes.get(nodeIndex);
-            JsonNode jNode = new JsonNode();
-            jsonGraph.nodes[nodeIndex] = jNode;
-
-            jNode.name = node.getName();
-            jNode.registryPackage = node.getRegistry().packageName;
-            jNode.tag = node.getTypeTag();
-
-            if (node instanceof INodeAdditionalData) {
-                INodeAdditionalData addNode = (INodeAdditionalData) node;
-                String[] addData = addNode.addtionalData();
-                String[] keys = addNode.dataKeys();
-                jNode.extraData = new JsonEntry[addData.length];
-                for (int i = 0; i < jNode.extraData.length; i++) {
-                    JsonEntry entry = new JsonEntry();
-                    jNode.extraData[i] = entry;
-                    entry.key = keys[i];
-                    entry.value = addData[i];
-                }
+    private static void readNode(JsonReader reader, NodeGraph graph, Map<String, INode> nodes) throws IOException,
+            ClassNotFoundException {
+        String name = null, registryPackage = null, tag = null;
+        List<String[]> inputs = new ArrayList<>();
+        Map<String, String> extraData = new HashMap<>();
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String key = reader.nextName();
+            if (reader.peek() == JsonToken.NULL) {
+                reader.skipValue();
+                continue;
             }
+            switch (key) {
+                case "name":
+                    name = reader.nextString();
+                    break;
+                case "registryPackage":
+                    registryPackage = reader.nextString();
+                    break;
+                case "tag":
+                    tag = reader.nextString();
+                    break;
+                case "inputs":
+                    reader.beginArray();
+                    while (reader.hasNext()) {
+                        String[] input = new String[3];
+                        reader.beginObject();
+                        while (reader.hasNext()) {
+                            switch (reader.nextName()) {
+                                case "inName":
+                                    input[0] = nextString(reader);
+                                    break;
+                                case "outName":
+                                    input[1] = nextString(reader);
+                                    break;
+                                case "otherNodeName":
+                                    input[2] = nextString(reader);
+                                    break;
+                                default:
+                                    reader.skipValue();
+                            }
+                        }
+                        reader.endObject();
+                        inputs.add(input);
+                    }
+                    reader.endArray();
+                    break;
+                case "extraData":
+                    reader.beginArray();
+                    while (reader.hasNext()) {
+                        String dataKey = null, dataValue = null;
+                        reader.beginObject();
+                        while (reader.hasNext()) {
+                            switch (reader.nextName()) {
+                                case "key":
+                                    dataKey = nextString(reader);
+                                    break;
+                                case "value":
+                                    dataValue = nextString(reader);
+                                    break;
+                                default:
+                                    reader.skipValue();
+                            }
+                        }
+                        reader.endObject();
+                        extraData.put(dataKey, dataValue);
+                    }
+                    reader.endArray();
+                    break;
+                default:
+                    reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        if (name == null || registryPackage == null || tag == null)
+            throw new IOException("Found a node without a name, registryPackage or tag!");
+        if (nodes.containsKey(name))
+            throw new IOException("Found a second node with the name " + name);
+        NodeRegistry registry = NodeRegistry.getRegistry(registryPackage);
+        if (registry == null)
+            throw new ClassNotFoundException("Unknown registry " + registryPackage);
+        INode node = registry.getNodeType(tag, name);
+        if (node == null)
+            throw new ClassNotFoundException("Unknown node type " + registryPackage + ":" + tag);
+
+        if (node instanceof INodeAdditionalData) {
+            INodeAdditionalData addNode = (INodeAdditionalData) node;
+            String[] keys = addNode.dataKeys();
+            String[] data = new String[keys.length];
+            for (int i = 0; i < keys.length; i++) {
+                data[i] = extraData.get(keys[i]);
+            }
+            node = addNode.modify(data);
+        }
 
-            Set<Entry<String, GraphConnection<?>>> inputs = node.getInputs().entrySet();
-            Iterator<Entry<String, GraphConnection<?>>> inputIterator = inputs.iterator();
-            jNode.inputs = new JsonInput[inputs.size()];
-
-            for (int inputIndex = 0; inputIndex < jNode.inputs.length; inputIndex++) {
-                JsonInput jInput = new JsonInput();
-                jNode.inputs[inputIndex] = jInput;
+        node = graph.addCopyOf(node, name);
+        nodes.put(name, node);
 
-                Entry<String, GraphConnection<?>> entry = inputIterator.next();
-                jInput.inName = entry.getKey();
-                jInput.outName = entry.getValue().connectedOutput.getName();
-                jInput.otherNodeName = entry.getValue().connectedOutput.getNode().getName();
-            }
+        for (String[] input : inputs) {
+            INode fromNode = nodes.get(input[2]);
+            if (fromNode == null)
+                throw new IOException("The input " + input[0] + " of " + name + " refers to " + input[2]
+                    + ", which hasn't been read yet");
+            graph.connectIO(fromNode, input[1], node, input[0]);
         }
-        String json = new GsonBuilder().setPrettyPrinting().create().toJson(jsonGraph);
-        OutputStreamWriter writer = new OutputStreamWriter(stream);
-        writer.write(json);
-        writer.close();
     }
 
-    private static class JsonGraph {
-        JsonNode[] nodes;
+    /** @return The next string, or null if the next value is null. */
+    private static String nextString(JsonReader reader) throws IOException {
+        if (reader.peek() == JsonToken.NULL) {
+            reader.nextNull();
+            return null;
+        }
+        return reader.nextString();
     }
 
-    private static class JsonNode {
-        String name, registryPackage, tag;
-        JsonInput[] inputs;
-        JsonEntry[] extraData;
+    /** Writes the graph out as pretty printed JSON. */
+    public static void write(NodeGraph graph, OutputStream stream) throws IOException {
+        write(graph, stream, true);
     }
 
-    private static class JsonEntry {
-        String key, value;
-    }
+    /** @param pretty If true every token goes on its own, indented, line. Otherwise no whitespace is written at all. */
+    public static void write(NodeGraph graph, OutputStream stream, boolean pretty) throws IOException {
+        JsonWriter writer = new JsonWriter(new BufferedWriter(new OutputStreamWriter(stream, StandardCharsets.UTF_8)));
+        if (pretty)
+            writer.setIndent("  ");
+
+        writer.beginObject();
+        writer.name("nodes").beginArray();
+        for (INode node : graph.getNodes()) {
+            writer.beginObject();
+            writer.name("name").value(node.getName());
+            writer.name("registryPackage").value(node.getRegistry().packageName);
+            writer.name("tag").value(node.getTypeTag());
+
+            writer.name("inputs").beginArray();
+            for (Entry<String, GraphConnection<?>> entry : node.getInputs().entrySet()) {
+                GraphConnection<?> in = entry.getValue();
+                if (in == null || in.connectedOutput == null)
+                    continue;
+                writer.beginObject();
+                writer.name("inName").value(entry.getKey());
+                writer.name("outName").value(in.connectedOutput.getName());
+                writer.name("otherNodeName").value(in.connectedOutput.getNode().getName());
+                writer.endObject();
+            }
+            writer.endArray();
 
-    private static class JsonInput {
-        String inName;
-        String outName;
-        String otherNodeName;
+            if (node instanceof INodeAdditionalData) {
+                INodeAdditionalData addNode = (INodeAdditionalData) node;
+                String[] addData = addNode.addtionalData();
+                String[] keys = addNode.dataKeys();
+                writer.name("extraData").beginArray();
+                for (int i = 0; i < addData.length; i++) {
+                    writer.beginObject();
+                    writer.name("key").value(keys[i]);
+                    writer.name("value").value(addData[i]);
+                    writer.endObject();
+                }
+                writer.endArray();
+            }
+            writer.endObject();
+        }
+        writer.endArray();
+        writer.endObject();
+        writer.flush();
     }
 }
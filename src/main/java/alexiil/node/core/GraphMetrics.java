@@ -0,0 +1,340 @@
+/* Copyright (c) 2015 AlexIIL
+ *
+ * See the file "LICENSE" for copying permission. */
+package alexiil.node.core;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import alexiil.node.core.NodeGraph.GraphConnection;
+
+/** Collects runtime statistics about every node and connection in a graph. This is opt-in: attach it to a graph with
+ * {@link NodeGraph#setTracer(GraphTracer)}.
+ *
+ * For every node this counts how many times it computed, how many elements it produced and consumed, and keeps a
+ * histogram of how long computing took. For every connection this tracks the most elements it has held at once and how
+ * many elements have passed through it.
+ *
+ * Reading the clock is by far the most expensive part of this, so only every {@link #getSampleInterval()}th
+ * computation of each node is timed. Everything else is always counted. {@link #snapshot()} and
+ * {@link #toPrometheus()} can be called from any thread while the graph is running.
+ *
+ * @author AlexIIL */
+public class GraphMetrics implements GraphTracer {
+    /** The upper bounds (in nanoseconds) of every histogram bucket, apart from the last (infinite) one. */
+    private static final long[] BUCKET_BOUNDS = { 100L, 1_000L, 10_000L, 100_000L, 1_000_000L, 10_000_000L, 100_000_000L,
+        1_000_000_000L };
+
+    private final int sampleInterval;
+    private final Map<INode, NodeStats> nodeStats = new ConcurrentHashMap<>();
+    private final Map<GraphConnection<?>, ConnectionStats> connectionStats = new ConcurrentHashMap<>();
+
+    /** Creates a metrics registry that times every computation. */
+    public GraphMetrics() {
+        this(1);
+    }
+
+    /** @param sampleInterval How many computations of a node should happen between each one that is timed. 1 times
+     *            every computation, 0 turns timing off entirely. */
+    public GraphMetrics(int sampleInterval) {
+        if (sampleInterval < 0)
+            throw new IllegalArgumentException("The sample interval cannot be negative! (" + sampleInterval + ")");
+        this.sampleInterval = sampleInterval;
+    }
+
+    public int getSampleInterval() {
+        return sampleInterval;
+    }
+
+    /** Sets everything that has been recorded so far back to zero. */
+    public void reset() {
+        // The stats are cached in the nodes and connections, so they are cleared rather than replaced
+        for (NodeStats stats : nodeStats.values()) {
+            stats.reset();
+        }
+        for (ConnectionStats stats : connectionStats.values()) {
+            stats.reset();
+        }
+    }
+
+    private NodeStats stats(INode node) {
+        if (!(node instanceof AbstractNode))
+            return nodeStats.computeIfAbsent(node, n -> new NodeStats(this, n));
+        AbstractNode abstractNode = (AbstractNode) node;
+        Object cached = abstractNode.metricsStats;
+        if (cached instanceof NodeStats && ((NodeStats) cached).metrics == this)
+            return (NodeStats) cached;
+        NodeStats stats = nodeStats.computeIfAbsent(node, n -> new NodeStats(this, n));
+        abstractNode.metricsStats = stats;
+        return stats;
+    }
+
+    private ConnectionStats stats(GraphConnection<?> connection) {
+        Object cached = connection.metricsStats;
+        if (cached instanceof ConnectionStats && ((ConnectionStats) cached).metrics == this)
+            return (ConnectionStats) cached;
+        ConnectionStats stats = connectionStats.computeIfAbsent(connection, c -> new ConnectionStats(this, c));
+        connection.metricsStats = stats;
+        return stats;
+    }
+
+    @Override
+    public void onComputeStart(INode node) {
+        NodeStats stats = stats(node);
+        stats.invocations.increment();
+        if (sampleInterval != 0 && --stats.untilSample <= 0) {
+            stats.untilSample = sampleInterval;
+            stats.sampling = true;
+            stats.sampleStart = System.nanoTime();
+        }
+    }
+
+    @Override
+    public void onComputeEnd(INode node, boolean pushed) {
+        if (sampleInterval == 0)
+            return;
+        NodeStats stats = stats(node);
+        if (stats.sampling) {
+            stats.sampling = false;
+            stats.record(System.nanoTime() - stats.sampleStart);
+        }
+    }
+
+    @Override
+    public void onPush(GraphConnection<?> connection, int count) {
+        ConnectionStats stats = stats(connection);
+        stats.throughput.add(count);
+        stats.updateHighWater(connection.getRemainingElements());
+        if (connection.isOutput()) {
+            stats(connection.getNode()).produced.add(count);
+        }
+    }
+
+    @Override
+    public void onPop(GraphConnection<?> connection, int count) {
+        stats(connection.getNode()).consumed.add(count);
+    }
+
+    /** @return An immutable copy of everything that has been recorded so far. */
+    public Snapshot snapshot() {
+        List<NodeSnapshot> nodes = new ArrayList<>();
+        for (NodeStats stats : nodeStats.values()) {
+            nodes.add(stats.snapshot());
+        }
+        List<ConnectionSnapshot> connections = new ArrayList<>();
+        for (ConnectionStats stats : connectionStats.values()) {
+            connections.add(stats.snapshot());
+        }
+        return new Snapshot(nodes, connections);
+    }
+
+    /** @return Everything that has been recorded so far in the Prometheus text exposition format. */
+    public String toPrometheus() {
+        Snapshot snapshot = snapshot();
+        StringBuilder sb = new StringBuilder();
+
+        header(sb, "nodegraph_node_invocations_total", "counter", "Number of times a node computed its outputs.");
+        for (NodeSnapshot node : snapshot.nodes) {
+            sb.append("nodegraph_node_invocations_total").append(node.labels()).append(' ').append(node.invocations).append('\n');
+        }
+        header(sb, "nodegraph_node_produced_total", "counter", "Number of elements a node pushed to its outputs.");
+        for (NodeSnapshot node : snapshot.nodes) {
+            sb.append("nodegraph_node_produced_total").append(node.labels()).append(' ').append(node.produced).append('\n');
+        }
+        header(sb, "nodegraph_node_consumed_total", "counter", "Number of elements a node popped from its inputs.");
+        for (NodeSnapshot node : snapshot.nodes) {
+            sb.append("nodegraph_node_consumed_total").append(node.labels()).append(' ').append(node.consumed).append('\n');
+        }
+        header(sb, "nodegraph_node_compute_seconds", "histogram", "Time taken by sampled node computations.");
+        for (NodeSnapshot node : snapshot.nodes) {
+            String labels = node.labels();
+            String prefix = labels.substring(0, labels.length() - 1) + ",le=\"";
+            long cumulative = 0;
+            for (int i = 0; i < node.buckets.length; i++) {
+                cumulative += node.buckets[i];
+                String le = i < BUCKET_BOUNDS.length ? Double.toString(BUCKET_BOUNDS[i] / 1e9) : "+Inf";
+                sb.append("nodegraph_node_compute_seconds_bucket").append(prefix).append(le).append("\"} ").append(cumulative).append('\n');
+            }
+            sb.append("nodegraph_node_compute_seconds_sum").append(labels).append(' ').append(node.computeNanos / 1e9).append('\n');
+            sb.append("nodegraph_node_compute_seconds_count").append(labels).append(' ').append(cumulative).append('\n');
+        }
+        header(sb, "nodegraph_connection_queue_depth_max", "gauge", "Most elements a connection has held at once.");
+        for (ConnectionSnapshot conn : snapshot.connections) {
+            sb.append("nodegraph_connection_queue_depth_max").append(conn.labels()).append(' ').append(conn.highWater).append('\n');
+        }
+        header(sb, "nodegraph_connection_elements_total", "counter", "Number of elements pushed through a connection.");
+        for (ConnectionSnapshot conn : snapshot.connections) {
+            sb.append("nodegraph_connection_elements_total").append(conn.labels()).append(' ').append(conn.throughput).append('\n');
+        }
+        return sb.toString();
+    }
+
+    private static void header(StringBuilder sb, String name, String type, String help) {
+        sb.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        sb.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    private static String escape(String label) {
+        return label.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+
+    private static String typeOf(INode node) {
+        NodeRegistry registry = node.getRegistry();
+        return (registry == null ? "" : registry.packageName + ":") + node.getTypeTag();
+    }
+
+    private static final class NodeStats {
+        final GraphMetrics metrics;
+        final INode node;
+        final LongAdder invocations = new LongAdder();
+        final LongAdder produced = new LongAdder();
+        final LongAdder consumed = new LongAdder();
+        final LongAdder computeNanos = new LongAdder();
+        final LongAdder[] buckets = new LongAdder[BUCKET_BOUNDS.length + 1];
+        // Only ever touched by whichever thread is computing the node
+        int untilSample;
+        boolean sampling;
+        long sampleStart;
+
+        NodeStats(GraphMetrics metrics, INode node) {
+            this.metrics = metrics;
+            this.node = node;
+            for (int i = 0; i < buckets.length; i++) {
+                buckets[i] = new LongAdder();
+            }
+        }
+
+        void record(long nanos) {
+            computeNanos.add(nanos);
+            int bucket = 0;
+            while (bucket < BUCKET_BOUNDS.length && nanos > BUCKET_BOUNDS[bucket]) {
+                bucket++;
+            }
+            buckets[bucket].increment();
+        }
+
+        void reset() {
+            invocations.reset();
+            produced.reset();
+            consumed.reset();
+            computeNanos.reset();
+            for (LongAdder bucket : buckets) {
+                bucket.reset();
+            }
+        }
+
+        NodeSnapshot snapshot() {
+            long[] counts = new long[buckets.length];
+            for (int i = 0; i < counts.length; i++) {
+                counts[i] = buckets[i].sum();
+            }
+            return new NodeSnapshot(node.getName(), typeOf(node), invocations.sum(), produced.sum(), consumed.sum(),
+                    computeNanos.sum(), counts);
+        }
+    }
+
+    private static final class ConnectionStats {
+        final GraphMetrics metrics;
+        final GraphConnection<?> connection;
+        final LongAdder throughput = new LongAdder();
+        final AtomicInteger highWater = new AtomicInteger();
+
+        ConnectionStats(GraphMetrics metrics, GraphConnection<?> connection) {
+            this.metrics = metrics;
+            this.connection = connection;
+        }
+
+        void reset() {
+            throughput.reset();
+            highWater.set(0);
+        }
+
+        void updateHighWater(int depth) {
+            if (depth > highWater.get()) {
+                highWater.accumulateAndGet(depth, Math::max);
+            }
+        }
+
+        ConnectionSnapshot snapshot() {
+            return new ConnectionSnapshot(connection.getNode().getName(), connection.getName(), connection.isOutput(),
+                    highWater.get(), throughput.sum());
+        }
+    }
+
+    /** Everything a {@link GraphMetrics} had recorded at a single point in time. */
+    public static final class Snapshot {
+        public final List<NodeSnapshot> nodes;
+        public final List<ConnectionSnapshot> connections;
+
+        Snapshot(List<NodeSnapshot> nodes, List<ConnectionSnapshot> connections) {
+            this.nodes = Collections.unmodifiableList(nodes);
+            this.connections = Collections.unmodifiableList(connections);
+        }
+
+        /** @return The statistics for the node with the given name, or null if nothing has been recorded for it. */
+        public NodeSnapshot getNode(String name) {
+            for (NodeSnapshot node : nodes) {
+                if (node.name.equals(name))
+                    return node;
+            }
+            return null;
+        }
+    }
+
+    public static final class NodeSnapshot {
+        public final String name, type;
+        public final long invocations, produced, consumed;
+        /** The total time spent in sampled computations. */
+        public final long computeNanos;
+        /** The (non-cumulative) number of sampled computations that fell into each histogram bucket. */
+        private final long[] buckets;
+
+        NodeSnapshot(String name, String type, long invocations, long produced, long consumed, long computeNanos,
+                long[] buckets) {
+            this.name = name;
+            this.type = type;
+            this.invocations = invocations;
+            this.produced = produced;
+            this.consumed = consumed;
+            this.computeNanos = computeNanos;
+            this.buckets = buckets;
+        }
+
+        /** @return How many computations were timed. */
+        public long getSampleCount() {
+            long count = 0;
+            for (long bucket : buckets) {
+                count += bucket;
+            }
+            return count;
+        }
+
+        String labels() {
+            return "{node=\"" + escape(name) + "\",type=\"" + escape(type) + "\"}";
+        }
+    }
+
+    public static final class ConnectionSnapshot {
+        public final String node, port;
+        public final boolean output;
+        public final int highWater;
+        public final long throughput;
+
+        ConnectionSnapshot(String node, String port, boolean output, int highWater, long throughput) {
+            this.node = node;
+            this.port = port;
+            this.output = output;
+            this.highWater = highWater;
+            this.throughput = throughput;
+        }
+
+        String labels() {
+            return "{node=\"" + escape(node) + "\",port=\"" + escape(port) + "\",direction=\"" + (output ? "out" : "in") + "\"}";
+        }
+    }
+}
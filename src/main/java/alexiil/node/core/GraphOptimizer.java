@@ -0,0 +1,223 @@
+/* Copyright (c) 2015 AlexIIL
+ *
+ * See the file "LICENSE" for copying permission. */
+package alexiil.node.core;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+import alexiil.node.core.NodeGraph.GraphConnection;
+
+/** Creates an optimised copy of a graph to evaluate, leaving the original graph (and so anything saved from it)
+ * unchanged. Three optimisations are made:
+ * <ul>
+ * <li>Constant folding: every {@link INodeFoldable} node whose inputs all (indirectly) come from value nodes is worked
+ * out once, and replaced by value nodes from its registry's {@link NodeRegistry#createNodeValue(Object, Class)}.</li>
+ * <li>Dead node elimination: nodes that cannot reach a sink are removed. A sink is any node without outputs (like a
+ * {@link ReturnNode}), as those are the only nodes whose results can ever be seen.</li>
+ * <li>Common subexpression elimination: {@link INodeFoldable} nodes with the same registry, type tag and
+ * {@link INodeAdditionalData#addtionalData()} whose inputs are connected to the same outputs are merged into one node,
+ * whose outputs go to all of their consumers. This includes the value nodes created by folding, so a constant is only
+ * ever pushed by one node.</li>
+ * </ul>
+ * Use {@link Result#get(INode)} to find the node in the optimised graph that replaced a node in the original one.
+ *
+ * @author AlexIIL */
+public final class GraphOptimizer {
+    private GraphOptimizer() {}
+
+    public static Result optimize(NodeGraph graph) {
+        List<INode> nodes = graph.getNodes();
+        GraphTopology topology = graph.topology();
+        int count = nodes.size();
+
+        // Constant folding, top down. Unconnected inputs never get a value, so their nodes are never constant.
+        Map<GraphConnection<?>, Object> constants = Maps.newIdentityHashMap();
+        boolean[] constant = new boolean[count];
+        for (int i = 0; i < count; i++) {
+            INode node = nodes.get(i);
+            if (!(node instanceof INodeFoldable))
+                continue;
+            Map<String, Object> inputs = Maps.newHashMap();
+            boolean allConstant = true;
+            for (GraphConnection<?> in : node.getInputs().values()) {
+                if (in == null || in.connectedOutput == null || !constants.containsKey(in.connectedOutput)) {
+                    allConstant = false;
+                    break;
+                }
+                inputs.put(in.getName(), constants.get(in.connectedOutput));
+            }
+            if (!allConstant)
+                continue;
+            Map<String, Object> outputs;
+            try {
+                outputs = ((INodeFoldable) node).fold(inputs);
+            } catch (RuntimeException e) {
+                // Such as dividing by 0: leave it to fail when it is evaluated, like it would without this
+                continue;
+            }
+            if (!canCreateValues(node, outputs))
+                continue;
+            for (GraphConnection<?> out : node.getOutputs().values()) {
+                constants.put(out, outputs.get(out.getName()));
+            }
+            constant[i] = true;
+        }
+
+        // Dead node elimination, bottom up. Folded nodes are replaced, so they don't need anything above them.
+        boolean[] needed = new boolean[count];
+        boolean[] folded = new boolean[count];
+        for (int i = count - 1; i >= 0; i--) {
+            INode node = nodes.get(i);
+            if (node.getOutputs().isEmpty())
+                needed[i] = true;
+            if (!needed[i])
+                continue;
+            // Sinks (without any outputs) have nothing to be replaced with, so they are always kept
+            if (constant[i] && !(node instanceof ValueNode) && !node.getOutputs().isEmpty()) {
+                folded[i] = true;
+                continue;
+            }
+            for (int u = topology.upstreamStart[i]; u < topology.upstreamStart[i + 1]; u++) {
+                needed[topology.upstream[u]] = true;
+            }
+        }
+
+        NodeGraph optimized = graph.emptyCopy();
+        Map<INode, INode> replaced = Maps.newIdentityHashMap();
+        Map<GraphConnection<?>, GraphConnection<?>> outputs = Maps.newIdentityHashMap();
+        // Inputs are looked up through outputs (which only ever has one copy of each distinct output) so merged nodes
+        // make their consumers identical too, and whole identical subgraphs are merged from the top down.
+        Map<List<Object>, INode> distinct = Maps.newHashMap();
+        List<INode> foldedNodes = Lists.newArrayList();
+        List<INode> removedNodes = Lists.newArrayList();
+        List<INode> mergedNodes = Lists.newArrayList();
+        for (int i = 0; i < count; i++) {
+            INode node = nodes.get(i);
+            if (!needed[i]) {
+                removedNodes.add(node);
+            } else if (folded[i]) {
+                foldedNodes.add(node);
+                for (GraphConnection<?> out : node.getOutputs().values()) {
+                    if (out.connectedInputs.isEmpty())
+                        continue;
+                    INode value = createValue(node, out, constants.get(out));
+                    List<Object> key = key(value, Collections.emptyMap());
+                    INode copy = distinct.get(key);
+                    if (copy == null) {
+                        String name = node.getOutputs().size() == 1 ? node.getName() : node.getName() + "." + out.getName();
+                        copy = optimized.addCopyOf(value, name);
+                        distinct.put(key, copy);
+                    }
+                    outputs.put(out, copy.getOutputs().get("val"));
+                }
+            } else {
+                Map<String, GraphConnection<?>> inputs = Maps.newTreeMap();
+                for (GraphConnection<?> in : node.getInputs().values()) {
+                    if (in != null && in.connectedOutput != null)
+                        inputs.put(in.getName(), outputs.get(in.connectedOutput));
+                }
+                List<Object> key = node instanceof INodeFoldable ? key(node, inputs) : null;
+                INode copy = key == null ? null : distinct.get(key);
+                if (copy != null) {
+                    mergedNodes.add(node);
+                } else {
+                    copy = optimized.addCopyOf(node, node.getName());
+                    if (key != null)
+                        distinct.put(key, copy);
+                    for (Entry<String, GraphConnection<?>> entry : inputs.entrySet()) {
+                        GraphConnection<?> from = entry.getValue();
+                        optimized.connectIO(from.getNode(), from.getName(), copy, entry.getKey());
+                    }
+                }
+                replaced.put(node, copy);
+                for (GraphConnection<?> out : node.getOutputs().values()) {
+                    outputs.put(out, copy.getOutputs().get(out.getName()));
+                }
+            }
+        }
+        return new Result(optimized, replaced, foldedNodes, removedNodes, mergedNodes);
+    }
+
+    /** @param inputs The outputs (in the optimised graph) that each input is connected to.
+     * @return A key that is only equal for nodes that always compute the same thing. */
+    private static List<Object> key(INode node, Map<String, ? extends GraphConnection<?>> inputs) {
+        String[] data = node instanceof INodeAdditionalData ? ((INodeAdditionalData) node).addtionalData() : null;
+        return Arrays.asList(node.getRegistry(), node.getTypeTag(), data == null ? null : Arrays.asList(data), inputs);
+    }
+
+    private static boolean canCreateValues(INode node, Map<String, Object> values) {
+        for (GraphConnection<?> out : node.getOutputs().values()) {
+            Object value = values.get(out.getName());
+            if (value == null || !out.getTypeClass().isInstance(value))
+                return false;
+            try {
+                createValue(node, out, value);
+            } catch (IllegalArgumentException e) {
+                // The registry doesn't have a value node for this type
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> INode createValue(INode node, GraphConnection<T> out, Object value) {
+        return node.getRegistry().createNodeValue((T) value, out.getTypeClass());
+    }
+
+    /** The optimised graph, and what was changed to make it. */
+    public static final class Result {
+        private final NodeGraph graph;
+        private final Map<INode, INode> replaced;
+        private final List<INode> folded, removed, merged;
+
+        Result(NodeGraph graph, Map<INode, INode> replaced, List<INode> folded, List<INode> removed,
+                List<INode> merged) {
+            this.graph = graph;
+            this.replaced = replaced;
+            this.folded = Collections.unmodifiableList(folded);
+            this.removed = Collections.unmodifiableList(removed);
+            this.merged = Collections.unmodifiableList(merged);
+        }
+
+        /** @return The optimised graph. This shares nothing with the original graph. */
+        public NodeGraph getGraph() {
+            return graph;
+        }
+
+        /** @return The node in the optimised graph that is a copy of the given node from the original graph (which may
+         *         also be the copy of other nodes that it was merged with), or null if it was folded or removed. */
+        @SuppressWarnings("unchecked")
+        public <N extends INode> N get(N original) {
+            return (N) replaced.get(original);
+        }
+
+        /** @return Every node from the original graph that was replaced by value nodes. */
+        public List<INode> getFolded() {
+            return folded;
+        }
+
+        /** @return Every node from the original graph that could not reach a sink, so was left out. */
+        public List<INode> getRemoved() {
+            return removed;
+        }
+
+        /** @return Every node from the original graph that was merged into an identical node that came before it. */
+        public List<INode> getMerged() {
+            return merged;
+        }
+
+        @Override
+        public String toString() {
+            return "Folded " + folded.size() + ", removed " + removed.size() + " and merged " + merged.size()
+                + " nodes, leaving " + graph.getNodes().size();
+        }
+    }
+}
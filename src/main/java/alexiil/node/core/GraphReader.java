@@ -3,12 +3,13 @@
  * See the file "LICENSE" for copying permission. */
 package alexiil.node.core;
 
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
-import java.nio.channels.Channels;
-import java.nio.channels.SeekableByteChannel;
-import java.nio.file.Files;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
 import java.nio.file.Path;
 import java.nio.file.StandardOpenOption;
 import java.util.*;
@@ -17,6 +18,10 @@ import java.util.zip.GZIPOutputStream;
 
 public class GraphReader {
     private static final Map<Integer, SaveType> typeMap = new HashMap<>();
+    /** Files smaller than this are read into a heap buffer, as mapping them costs more than just copying them. */
+    private static final int MAP_THRESHOLD = 64 * 1024;
+    /** The size of the direct buffer used when writing to a file. */
+    private static final int WRITE_BUFFER_SIZE = 64 * 1024;
 
     public enum SaveType {
         /** Outputs a readable version of the graph. This is a compact variant that refers to graph elements by their
@@ -24,7 +29,7 @@ public class GraphReader {
         READABLE_COMPACT(1, GraphReader::readBufferedStream, GraphReader::writeBufferedStream),
         /** Outputs the graph as very readable JSON text. This is a non-compact huge way of saving the graph, so it is
          * not recommended for anything other than debugging or small graphs. */
-        READABLE_JSON(2, GraphReader::readJsonStream, GraphReader::writeJsonStream),
+        READABLE_JSON(2, GraphReader::readJsonStream, GraphReader::writeJsonStream, Flag.MINIFIED),
         /** Outputs the graph using as little space as possible- useful with passing over a network connection. This can
          * be optionally compressed for more space saving. */
         BYTES_COMPACT(0, GraphReader::readByteStream, GraphReader::writeByteStream, Flag.COMPRESSED);
@@ -48,7 +53,7 @@ public class GraphReader {
     }
 
     public interface SimpleWriter {
-        void write(NodeGraph graph, OutputStream stream) throws IOException;
+        void write(NodeGraph graph, OutputStream stream, int flags) throws IOException;
     }
 
     // Stored outside the Flag Enum because of java
@@ -56,41 +61,71 @@ public class GraphReader {
 
     public enum Flag {
         /** Compresses the resulting bytes to make them take up as little space as possible. This uses GZIP for
-         * compression. This is only available with {@link SaveType#COMPACT}. */
-        COMPRESSED(0);
+         * compression. This is only available with {@link SaveType#BYTES_COMPACT}. */
+        COMPRESSED(0),
+        /** Writes JSON without any whitespace, rather than pretty printing it. This is only available with
+         * {@link SaveType#READABLE_JSON}. */
+        MINIFIED(1);
 
         final int flag;
 
         private Flag(int flag) {
-            this.flag = 1 >> flag;
+            this.flag = 1 << flag;
             if (maxFlag <= flag)
                 maxFlag = flag + 1;
         }
 
         boolean isActive(int flags) {
-            return (flags & flag) == 1;
+            return (flags & flag) != 0;
         }
 
         static boolean isValid(int flags) {
-            return flags - (flags & maxFlag) == 0;
+            return (flags & ~((1 << maxFlag) - 1)) == 0;
         }
     }
 
-    /** Reads a node graph from a file given by an {@link Path}
+    /** Reads a node graph from a file given by an {@link Path}. Large files are memory mapped and parsed straight out of
+     * the mapping (see {@link #readNodeGraph(ByteBuffer)}), rather than being copied through an {@link InputStream}.
      * 
      * @param path The path for the file to read from
      * @return The read graph
      * @throws IOException if anything goes wrong while reading from the file */
     public static NodeGraph readNodeGraph(Path path) throws IOException {
-        SeekableByteChannel channel = Files.newByteChannel(path, StandardOpenOption.READ);
-        InputStream stream = Channels.newInputStream(channel);
-        try {
-            return readNodeGraph(stream);
-        } finally {
-            stream.close();
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE)
+                throw new IOException("The file " + path + " is too large to read (" + size + " bytes)");
+            ByteBuffer buffer;
+            if (size < MAP_THRESHOLD) {
+                buffer = ByteBuffer.allocate((int) size);
+                while (buffer.hasRemaining() && channel.read(buffer) >= 0) {}
+                buffer.flip();
+            } else {
+                // The mapping stays valid after the channel is closed, and is released when the buffer is collected
+                buffer = channel.map(MapMode.READ_ONLY, 0, size);
+            }
+            return readNodeGraph(buffer);
         }
     }
 
+    /** Reads a node graph from the remaining bytes of a buffer. Uncompressed {@link SaveType#BYTES_COMPACT} graphs are
+     * parsed directly from the buffer, everything else is read through a thin {@link InputStream} view of it.
+     * 
+     * @param buffer The buffer to read the graph from, starting at its position
+     * @return The read graph
+     * @throws IOException if anything goes wrong while reading from the buffer */
+    public static NodeGraph readNodeGraph(ByteBuffer buffer) throws IOException {
+        if (buffer.remaining() < 2)
+            throw new EOFException("The buffer ended before the header did!");
+        int flags = buffer.get() & 0xFF;
+        int version = buffer.get() & 0xFF;
+
+        if (Flag.COMPRESSED.isActive(flags) || version != SaveType.BYTES_COMPACT.version)
+            return readBody(new BufferInputStream(buffer), flags, version);
+        checkFlags(flags);
+        return GraphBytes.read(buffer);
+    }
+
     /** Reads a node graph from a given {@link InputStream}
      * 
      * @param input The stream to read the graph from
@@ -100,7 +135,12 @@ public class GraphReader {
         // Header reading
         int flags = input.read();
         int version = input.read();
+        if (version < 0)
+            throw new EOFException("The stream ended before the header did!");
+        return readBody(input, flags, version);
+    }
 
+    private static NodeGraph readBody(InputStream input, int flags, int version) throws IOException {
         // Header interpreting
         if (Flag.COMPRESSED.isActive(flags)) {
             // Replace the stream straight away with a decompressed one
@@ -109,8 +149,7 @@ public class GraphReader {
             flags -= Flag.COMPRESSED.flag;
         }
 
-        if (!Flag.isValid(flags))
-            throw new IOException("Found extra flags! (" + Integer.toBinaryString(flags) + ")");
+        checkFlags(flags);
 
         // Get the correct reader for the given version
         SaveType type = typeMap.get(version);
@@ -120,6 +159,11 @@ public class GraphReader {
         throw new IOException("Unknown version " + version);
     }
 
+    private static void checkFlags(int flags) throws IOException {
+        if (!Flag.isValid(flags))
+            throw new IOException("Found extra flags! (" + Integer.toBinaryString(flags) + ")");
+    }
+
     /** Writes a node graph directly to a file with the specified {@link SaveType} and flags.
      * 
      * @param path The file path to write to
@@ -131,13 +175,14 @@ public class GraphReader {
      * @throws IllegalArgumentException if any of the flags given are incompatable with the {@link SaveType}
      * @throws NullPointerException if any of the arguments are null
      * @implNote This will call {@link #writeNodeGraph(OutputStream, NodeGraph, SaveType, Flag...)} after creating a
-     *           file (or erasing the old one). */
+     *           file (or erasing the old one), with a stream that writes to the file's {@link FileChannel} through a
+     *           direct buffer. */
     public static void writeNodeGraph(Path path, NodeGraph graph, SaveType type, Flag... flags) throws IOException, IllegalArgumentException {
-        OutputStream stream = Files.newOutputStream(path);
-        try {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            ChannelOutputStream stream = new ChannelOutputStream(channel);
             writeNodeGraph(stream, graph, type, flags);
-        } finally {
-            stream.close();
+            stream.flush();
         }
     }
 
@@ -171,7 +216,12 @@ public class GraphReader {
         }
 
         // Actual writing
-        type.writer.write(graph, stream);
+        type.writer.write(graph, stream, flagsInt);
+
+        if (stream instanceof GZIPOutputStream) {
+            // Write out the GZIP trailer without closing the underlying stream
+            ((GZIPOutputStream) stream).finish();
+        }
     }
 
     /*
@@ -183,23 +233,23 @@ public class GraphReader {
     /** Reads the input in as small a manor as possible- using bytes to represent classes and requires a node registry
      * to already exist to load the classes from. */
     private static NodeGraph readByteStream(InputStream stream, int flags) throws IOException {
-        throw new IOException("I don't know how to read!");
+        return GraphBytes.read(stream);
     }
 
-    private static void writeByteStream(NodeGraph graph, OutputStream stream) throws IOException {
-        throw new IOException("I don't know how to write!");
+    private static void writeByteStream(NodeGraph graph, OutputStream stream, int flags) throws IOException {
+        GraphBytes.write(graph, stream);
     }
 
     // VERSION 1- COMPACT TEXT
 
-    /** Reads the input in a manor that can be opened by a normal text file editor and understood by a human. (Quite a
-     * lot of redundancy, good for debugging a graph itself.) */
+    /** Reads the input in a manor that can be opened by a normal text file editor and understood by a human. This has
+     * one line per node and one per connection, so it works well with diffs. See {@link GraphText} for the format. */
     private static NodeGraph readBufferedStream(InputStream stream, int flags) throws IOException {
-        throw new IOException("I don't know how to read!");
+        return GraphText.read(stream);
     }
 
-    private static void writeBufferedStream(NodeGraph graph, OutputStream stream) throws IOException {
-        throw new IOException("I don't know how to write!");
+    private static void writeBufferedStream(NodeGraph graph, OutputStream stream, int flags) throws IOException {
+        GraphText.write(graph, stream);
     }
 
     // VERSION 2- JSON TEXT
@@ -211,7 +261,85 @@ public class GraphReader {
         }
     }
 
-    private static void writeJsonStream(NodeGraph graph, OutputStream stream) throws IOException {
-        GraphJson.write(graph, stream);
+    private static void writeJsonStream(NodeGraph graph, OutputStream stream, int flags) throws IOException {
+        GraphJson.write(graph, stream, !Flag.MINIFIED.isActive(flags));
+    }
+
+    // CHANNEL AND BUFFER STREAMS
+
+    /** An {@link InputStream} view of a buffer, used when a buffer has to be read by a stream based reader. */
+    private static final class BufferInputStream extends InputStream {
+        private final ByteBuffer buffer;
+
+        BufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] bytes, int offset, int length) {
+            if (length == 0)
+                return 0;
+            if (!buffer.hasRemaining())
+                return -1;
+            length = Math.min(length, buffer.remaining());
+            buffer.get(bytes, offset, length);
+            return length;
+        }
+
+        @Override
+        public long skip(long count) {
+            int skipped = (int) Math.max(0, Math.min(count, buffer.remaining()));
+            buffer.position(buffer.position() + skipped);
+            return skipped;
+        }
+
+        @Override
+        public int available() {
+            return buffer.remaining();
+        }
+    }
+
+    /** Collects everything written into a single direct buffer, which is handed to the channel whenever it fills up, so
+     * the channel never has to copy it into a temporary direct buffer of its own. */
+    private static final class ChannelOutputStream extends OutputStream {
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocateDirect(WRITE_BUFFER_SIZE);
+
+        ChannelOutputStream(FileChannel channel) {
+            this.channel = channel;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            if (!buffer.hasRemaining())
+                flush();
+            buffer.put((byte) b);
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int length) throws IOException {
+            while (length > 0) {
+                if (!buffer.hasRemaining())
+                    flush();
+                int count = Math.min(length, buffer.remaining());
+                buffer.put(bytes, offset, count);
+                offset += count;
+                length -= count;
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            buffer.clear();
+        }
     }
 }
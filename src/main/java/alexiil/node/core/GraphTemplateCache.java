@@ -0,0 +1,78 @@
+/* Copyright (c) 2015 AlexIIL
+ *
+ * See the file "LICENSE" for copying permission. */
+package alexiil.node.core;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ExecutionException;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+
+/** Caches parsed graphs by the hash of the bytes they were read from, so that loading the same graph again only has to
+ * hash it and {@link NodeGraph#copy()} the cached template rather than parse it and look up every node type again.
+ * 
+ * Templates are never handed out: every load returns a new, independent graph that can be changed and evaluated
+ * freely. The cache is bounded by the total number of nodes in all of its templates, and evicts the least recently
+ * used ones first. This is safe to use from multiple threads.
+ * 
+ * @author AlexIIL */
+public class GraphTemplateCache {
+    private static final HashFunction HASH = Hashing.murmur3_128();
+
+    private final Cache<HashCode, NodeGraph> templates;
+
+    /** @param maximumNodes The total number of nodes that all of the cached templates can have together. */
+    public GraphTemplateCache(long maximumNodes) {
+        // A single segment, so the least recently used template of the whole cache is evicted (rather than of one
+        // segment) and the maximum applies to all of the templates together
+        templates = CacheBuilder.newBuilder()
+                .concurrencyLevel(1)
+                .maximumWeight(maximumNodes)
+                .weigher((HashCode hash, NodeGraph template) -> template.getNodes().size())
+                .recordStats()
+                .build();
+    }
+
+    /** Reads the whole file and then calls {@link #load(byte[])}. */
+    public NodeGraph load(Path path) throws IOException {
+        return load(Files.readAllBytes(path));
+    }
+
+    /** @param bytes Everything that {@link GraphReader#writeNodeGraph(java.io.OutputStream, NodeGraph,
+     *            GraphReader.SaveType, GraphReader.Flag...)} wrote out, in any format.
+     * @return A new graph, copied from the template for these bytes (which is read first if it isn't cached).
+     * @throws IOException if the template had to be read and it could not be. */
+    public NodeGraph load(byte[] bytes) throws IOException {
+        HashCode hash = HASH.hashBytes(bytes);
+        try {
+            return templates.get(hash, () -> GraphReader.readNodeGraph(ByteBuffer.wrap(bytes))).copy();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException)
+                throw (IOException) e.getCause();
+            throw new IOException(e.getCause());
+        }
+    }
+
+    /** @return How many loads were served from a cached template, how many had to read one, and how many templates
+     *         have been evicted. */
+    public CacheStats stats() {
+        return templates.stats();
+    }
+
+    /** @return The number of templates currently cached. */
+    public long size() {
+        return templates.size();
+    }
+
+    public void invalidateAll() {
+        templates.invalidateAll();
+    }
+}
@@ -0,0 +1,233 @@
+/* Copyright (c) 2015 AlexIIL
+ *
+ * See the file "LICENSE" for copying permission. */
+package alexiil.node.core;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+import alexiil.node.core.NodeGraph.GraphConnection;
+
+/** Reads and writes graphs in the {@link GraphReader.SaveType#READABLE_COMPACT} text format. Every node is one line,
+ * followed by one line for each of its connected inputs:
+ *
+ * <pre>
+ * node math LongCreate four value=4
+ * node math LongAdder adder
+ *  in a 0 val
+ *  in b 0 val
+ * </pre>
+ *
+ * Nodes are referred to by their index (the order of the node lines, starting from 0) and inputs are sorted by name so
+ * that writing the same graph twice gives the same text. Tokens are separated by single spaces, so backslashes, spaces
+ * ("\s"), equals signs ("\q"), tabs and newlines are escaped. A token of just "\0" is null and "\e" is an empty
+ * string. Empty lines and lines starting with "#" are ignored.
+ *
+ * Both reading and writing work a line at a time, so nothing but the graph itself is ever kept in memory.
+ *
+ * @author AlexIIL */
+public class GraphText {
+    public static NodeGraph read(InputStream stream) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(stream, StandardCharsets.UTF_8));
+        NodeGraph graph = new NodeGraph();
+        List<INode> nodes = Lists.newArrayList();
+        Map<String, INode> prototypes = Maps.newHashMap();
+
+        String line;
+        int lineNumber = 0;
+        while ((line = reader.readLine()) != null) {
+            lineNumber++;
+            String trimmed = line.trim();
+            if (trimmed.isEmpty() || trimmed.startsWith("#"))
+                continue;
+            List<String> tokens = Arrays.asList(trimmed.split(" "));
+            try {
+                if (tokens.get(0).equals("node")) {
+                    nodes.add(readNode(graph, tokens, prototypes));
+                } else if (tokens.get(0).equals("in")) {
+                    if (tokens.size() != 4)
+                        throw new IOException("Expected \"in <input> <node index> <output>\"");
+                    if (nodes.isEmpty())
+                        throw new IOException("Found an input before any nodes");
+                    INode to = nodes.get(nodes.size() - 1);
+                    int fromIndex = Integer.parseInt(tokens.get(2));
+                    if (fromIndex < 0 || fromIndex >= nodes.size() - 1)
+                        throw new IOException("Invalid node index " + fromIndex);
+                    graph.connectIO(nodes.get(fromIndex), unescape(tokens.get(3)), to, unescape(tokens.get(1)));
+                } else {
+                    throw new IOException("Unknown line type " + tokens.get(0));
+                }
+            } catch (IOException | RuntimeException e) {
+                throw new IOException("Invalid line " + lineNumber + ": \"" + line + "\"", e);
+            }
+        }
+        return graph;
+    }
+
+    private static INode readNode(NodeGraph graph, List<String> tokens, Map<String, INode> prototypes) throws IOException {
+        if (tokens.size() < 4)
+            throw new IOException("Expected \"node <registry> <type> <name> [key=value...]\"");
+        String packageName = unescape(tokens.get(1));
+        String tag = unescape(tokens.get(2));
+        String name = unescape(tokens.get(3));
+
+        String key = packageName + " " + tag;
+        INode node = prototypes.get(key);
+        if (node == null) {
+            NodeRegistry registry = NodeRegistry.getRegistry(packageName);
+            if (registry == null)
+                throw new IOException("Unknown registry " + packageName);
+            node = registry.getNodeType(tag, tag);
+            if (node == null)
+                throw new IOException("Unknown node type " + packageName + ":" + tag);
+            prototypes.put(key, node);
+        }
+
+        if (node instanceof INodeAdditionalData) {
+            INodeAdditionalData addNode = (INodeAdditionalData) node;
+            List<String> keys = Arrays.asList(addNode.dataKeys());
+            String[] data = new String[keys.size()];
+            for (int i = 4; i < tokens.size(); i++) {
+                String token = tokens.get(i);
+                int equals = token.indexOf('=');
+                if (equals < 0)
+                    throw new IOException("Expected key=value, but got " + token);
+                int index = keys.indexOf(unescape(token.substring(0, equals)));
+                if (index < 0)
+                    throw new IOException("Unknown data key " + token.substring(0, equals));
+                data[index] = unescape(token.substring(equals + 1));
+            }
+            node = addNode.modify(data);
+        } else if (tokens.size() > 4) {
+            throw new IOException(packageName + ":" + tag + " doesn't have any additional data");
+        }
+        return graph.addCopyOf(node, name);
+    }
+
+    public static void write(NodeGraph graph, OutputStream stream) throws IOException {
+        Writer writer = new BufferedWriter(new OutputStreamWriter(stream, StandardCharsets.UTF_8));
+        StringBuilder line = new StringBuilder();
+        for (INode node : graph.getNodes()) {
+            line.setLength(0);
+            line.append("node ");
+            escape(line, node.getRegistry().packageName).append(' ');
+            escape(line, node.getTypeTag()).append(' ');
+            escape(line, node.getName());
+
+            if (node instanceof INodeAdditionalData) {
+                INodeAdditionalData addNode = (INodeAdditionalData) node;
+                String[] keys = addNode.dataKeys();
+                String[] data = addNode.addtionalData();
+                for (int i = 0; i < data.length; i++) {
+                    line.append(' ');
+                    escape(line, keys[i]).append('=');
+                    escape(line, data[i]);
+                }
+            }
+            writer.append(line).append('\n');
+
+            String[] inNames = node.getInputs().keySet().toArray(new String[0]);
+            Arrays.sort(inNames);
+            for (String inName : inNames) {
+                GraphConnection<?> in = node.getInputs().get(inName);
+                if (in == null || in.connectedOutput == null)
+                    continue;
+                line.setLength(0);
+                line.append(" in ");
+                escape(line, inName).append(' ');
+                line.append(graph.idOf(in.connectedOutput.getNode())).append(' ');
+                escape(line, in.connectedOutput.getName());
+                writer.append(line).append('\n');
+            }
+        }
+        writer.flush();
+    }
+
+    private static StringBuilder escape(StringBuilder sb, String token) {
+        if (token == null)
+            return sb.append("\\0");
+        if (token.isEmpty())
+            return sb.append("\\e");
+        for (int i = 0; i < token.length(); i++) {
+            char c = token.charAt(i);
+            switch (c) {
+                case '\\':
+                    sb.append("\\\\");
+                    break;
+                case ' ':
+                    sb.append("\\s");
+                    break;
+                case '=':
+                    sb.append("\\q");
+                    break;
+                case '\t':
+                    sb.append("\\t");
+                    break;
+                case '\n':
+                    sb.append("\\n");
+                    break;
+                case '\r':
+                    sb.append("\\r");
+                    break;
+                default:
+                    sb.append(c);
+            }
+        }
+        return sb;
+    }
+
+    private static String unescape(String token) throws IOException {
+        if (token.indexOf('\\') < 0)
+            return token;
+        if (token.equals("\\0"))
+            return null;
+        if (token.equals("\\e"))
+            return "";
+        StringBuilder sb = new StringBuilder(token.length());
+        for (int i = 0; i < token.length(); i++) {
+            char c = token.charAt(i);
+            if (c != '\\') {
+                sb.append(c);
+                continue;
+            }
+            if (++i == token.length())
+                throw new IOException("Unfinished escape in " + token);
+            switch (token.charAt(i)) {
+                case '\\':
+                    sb.append('\\');
+                    break;
+                case 's':
+                    sb.append(' ');
+                    break;
+                case 'q':
+                    sb.append('=');
+                    break;
+                case 't':
+                    sb.append('\t');
+                    break;
+                case 'n':
+                    sb.append('\n');
+                    break;
+                case 'r':
+                    sb.append('\r');
+                    break;
+                default:
+                    throw new IOException("Unknown escape \\" + token.charAt(i) + " in " + token);
+            }
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,84 @@
+/* Copyright (c) 2015 AlexIIL
+ *
+ * See the file "LICENSE" for copying permission. */
+package alexiil.node.core;
+
+import java.util.Arrays;
+
+/** The node level structure of a {@link NodeGraph}, stored as compressed sparse rows. Nodes are referred to by their id
+ * (their position in the graph), and the distinct nodes that feed node {@code i} are
+ * {@code upstream[upstreamStart[i]]} up to (but not including) {@code upstream[upstreamStart[i + 1]]}, sorted by id.
+ * The nodes that node {@code i} feeds are stored in the same way in {@link #downstreamStart} and {@link #downstream}.
+ *
+ * This is immutable, and is built from the graph's edge list in O(nodes + edges) the first time it is needed after the
+ * graph changes.
+ *
+ * @author AlexIIL */
+final class GraphTopology {
+    final int nodeCount;
+    final int[] upstreamStart, upstream;
+    final int[] downstreamStart, downstream;
+
+    /** @param edgeFrom The id of the node that each edge comes from.
+     * @param edgeTo The id of the node that each edge goes to. */
+    GraphTopology(int nodeCount, int[] edgeFrom, int[] edgeTo, int edgeCount) {
+        this.nodeCount = nodeCount;
+        int[][] up = rows(nodeCount, edgeTo, edgeFrom, edgeCount);
+        upstreamStart = up[0];
+        upstream = up[1];
+        int[][] down = rows(nodeCount, edgeFrom, edgeTo, edgeCount);
+        downstreamStart = down[0];
+        downstream = down[1];
+    }
+
+    /** @return The ids of every node that directly feeds the given one. */
+    int[] getUpstream(int node) {
+        return Arrays.copyOfRange(upstream, upstreamStart[node], upstreamStart[node + 1]);
+    }
+
+    /** @return The ids of every node that the given one directly feeds. */
+    int[] getDownstream(int node) {
+        return Arrays.copyOfRange(downstream, downstreamStart[node], downstreamStart[node + 1]);
+    }
+
+    /** @return {start, columns} for the rows given by rowOf, without any duplicate columns. */
+    private static int[][] rows(int nodeCount, int[] rowOf, int[] columnOf, int edgeCount) {
+        // Sorting by column and then (stably) by row leaves every row sorted, so duplicates end up next to each other
+        int[] byColumn = sortEdges(nodeCount, columnOf, null, edgeCount);
+        int[] byRow = sortEdges(nodeCount, rowOf, byColumn, edgeCount);
+
+        int[] start = new int[nodeCount + 1];
+        int[] columns = new int[edgeCount];
+        int count = 0, e = 0;
+        for (int row = 0; row < nodeCount; row++) {
+            start[row] = count;
+            while (e < edgeCount && rowOf[byRow[e]] == row) {
+                int column = columnOf[byRow[e++]];
+                if (count == start[row] || columns[count - 1] != column)
+                    columns[count++] = column;
+            }
+        }
+        start[nodeCount] = count;
+        return new int[][] { start, count == edgeCount ? columns : Arrays.copyOf(columns, count) };
+    }
+
+    /** Counting sort of edge indices by their key.
+     *
+     * @param edges The edge indices to sort, or null for every edge in order.
+     * @return The edge indices, stably sorted by key. */
+    private static int[] sortEdges(int nodeCount, int[] key, int[] edges, int edgeCount) {
+        int[] offsets = new int[nodeCount + 1];
+        for (int e = 0; e < edgeCount; e++) {
+            offsets[key[e] + 1]++;
+        }
+        for (int i = 0; i < nodeCount; i++) {
+            offsets[i + 1] += offsets[i];
+        }
+        int[] sorted = new int[edgeCount];
+        for (int i = 0; i < edgeCount; i++) {
+            int e = edges == null ? i : edges[i];
+            sorted[offsets[key[e]]++] = e;
+        }
+        return sorted;
+    }
+}
@@ -0,0 +1,40 @@
+/* Copyright (c) 2015 AlexIIL
+ *
+ * See the file "LICENSE" for copying permission. */
+package alexiil.node.core;
+
+import alexiil.node.core.NodeGraph.GraphConnection;
+
+/** Listens to everything that happens while a {@link NodeGraph} is being evaluated. Attach one with
+ * {@link NodeGraph#setTracer(GraphTracer)}- graphs without a tracer only pay for a single null check per event.
+ * 
+ * Every method does nothing by default, so implementations only need to override the events they care about.
+ * 
+ * @author AlexIIL */
+public interface GraphTracer {
+    /** Called before a graph starts evaluating any nodes. */
+    default void onIterationStart(NodeGraph graph) {}
+
+    /** Called after a graph has finished evaluating all of the nodes it needed to. */
+    default void onIterationEnd(NodeGraph graph) {}
+
+    /** Called after {@link GraphConnection#requestUpTo(int)} has updated the number of requested elements.
+     * 
+     * @param count The number of elements that were asked for. */
+    default void onRequest(GraphConnection<?> connection, int count) {}
+
+    /** Called after elements have been pushed to a connection. Pushing to an output also pushes to every connected
+     * input, so this will be called for each of them (before the output itself). */
+    default void onPush(GraphConnection<?> connection, int count) {}
+
+    /** Called after elements have been popped from an input connection. */
+    default void onPop(GraphConnection<?> connection, int count) {}
+
+    /** Called just before a node computes its outputs. */
+    default void onComputeStart(INode node) {}
+
+    /** Called just after a node has computed its outputs.
+     * 
+     * @param pushed True if the node pushed anything to its outputs. */
+    default void onComputeEnd(INode node, boolean pushed) {}
+}
@@ -9,7 +9,7 @@ import alexiil.node.core.NodeGraph.GraphConnection;
 
 /** Represents an operation on inputs, providing a set number of outputs.
  * 
- * Subclasses are generally NOT thread safe.
+ * Subclasses are generally NOT thread safe. Use {@link SharedGraph} to evaluate the same graph from several threads.
  * 
  * @author AlexIIL */
 public interface INode {
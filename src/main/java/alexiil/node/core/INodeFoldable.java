@@ -0,0 +1,19 @@
+/* Copyright (c) 2015 AlexIIL
+ *
+ * See the file "LICENSE" for copying permission. */
+package alexiil.node.core;
+
+import java.util.Map;
+
+/** A node whose outputs only ever depend on the values of its inputs (and never on any other state). If every input of
+ * one of these is a constant then {@link GraphOptimizer} can work out its outputs ahead of time and replace it with
+ * value nodes. */
+public interface INodeFoldable extends INode {
+    /** This can be called by many threads at once (for example by a {@link SharedGraph}), so it must be thread safe:
+     * it mustn't change any state of the node, or keep hold of the maps it is given or returns.
+     *
+     * @param inputs The value of every input, by name.
+     * @return The value of every output, by name. Throwing an exception stops this node from being folded, so it will
+     *         be evaluated (and throw again) normally instead. */
+    Map<String, Object> fold(Map<String, Object> inputs);
+}
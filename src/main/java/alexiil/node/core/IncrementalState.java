@@ -0,0 +1,149 @@
+/* Copyright (c) 2015 AlexIIL
+ *
+ * See the file "LICENSE" for copying permission. */
+package alexiil.node.core;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import com.google.common.collect.Maps;
+
+import alexiil.node.core.NodeGraph.GraphConnection;
+
+/** The cached outputs and dirty flags of a graph in {@link NodeGraph#setIncremental(boolean) incremental} mode.
+ *
+ * Every node starts out dirty. Whenever a node becomes dirty so does everything downstream of it, so everything
+ * upstream of a clean node is always clean too. This means evaluating a node only has to visit the dirty part of its
+ * upstream cone, and changing a value only has to visit the part of its downstream cone that was clean.
+ *
+ * Only {@link INodeFoldable} nodes are ever cleaned, as they are the only ones whose outputs can be reused.
+ *
+ * @author AlexIIL */
+final class IncrementalState {
+    private final NodeGraph graph;
+    /** The topology that the arrays were made for. A new one means the graph has changed, so everything is dirty. */
+    private GraphTopology topology;
+    /** The last outputs of every clean node, by id. */
+    private Map<String, Object>[] outputs;
+    private boolean[] dirty;
+    /** Only ever true while {@link #evaluate(INode, int)} is running. */
+    private boolean[] visited;
+    private int[] stack, found = new int[16];
+
+    IncrementalState(NodeGraph graph) {
+        this.graph = graph;
+    }
+
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    private GraphTopology checkTopology() {
+        GraphTopology current = graph.topology();
+        if (current != topology) {
+            topology = current;
+            outputs = new Map[current.nodeCount];
+            dirty = new boolean[current.nodeCount];
+            Arrays.fill(dirty, true);
+            visited = new boolean[current.nodeCount];
+            stack = new int[current.nodeCount];
+        }
+        return current;
+    }
+
+    /** Marks the given node and everything downstream of it as dirty. */
+    void markDirty(int id) {
+        if (topology != graph.topology() || dirty[id])
+            return;
+        int stackSize = 0;
+        dirty[id] = true;
+        stack[stackSize++] = id;
+        while (stackSize > 0) {
+            int index = stack[--stackSize];
+            outputs[index] = null;
+            for (int d = topology.downstreamStart[index]; d < topology.downstreamStart[index + 1]; d++) {
+                int down = topology.downstream[d];
+                if (!dirty[down]) {
+                    dirty[down] = true;
+                    stack[stackSize++] = down;
+                }
+            }
+        }
+    }
+
+    /** Recomputes every dirty node that the target depends on, and then pushes the cached values into every requested
+     * input of the target and computes it.
+     *
+     * @return False if something the target depends on isn't {@link INodeFoldable}, so the target has to be evaluated
+     *         normally instead. */
+    boolean evaluate(INode target, int targetId) {
+        GraphTopology topology = checkTopology();
+        List<INode> nodes = graph.getNodes();
+
+        // Find every dirty node upstream, without going past clean ones (as everything above them is clean)
+        int stackSize = 0, count = 0;
+        stack[stackSize++] = targetId;
+        while (stackSize > 0) {
+            int index = stack[--stackSize];
+            for (int u = topology.upstreamStart[index]; u < topology.upstreamStart[index + 1]; u++) {
+                int up = topology.upstream[u];
+                if (dirty[up] && !visited[up]) {
+                    visited[up] = true;
+                    stack[stackSize++] = up;
+                    if (count == found.length)
+                        found = Arrays.copyOf(found, count * 2);
+                    found[count++] = up;
+                }
+            }
+        }
+        for (int i = 0; i < count; i++) {
+            visited[found[i]] = false;
+        }
+        Arrays.sort(found, 0, count);
+
+        GraphTracer tracer = graph.tracer;
+        for (int i = 0; i < count; i++) {
+            int id = found[i];
+            INode node = nodes.get(id);
+            Map<String, Object> inputs = inputValues(node);
+            if (!(node instanceof INodeFoldable) || inputs == null)
+                return false;
+            if (tracer != null)
+                tracer.onComputeStart(node);
+            outputs[id] = ((INodeFoldable) node).fold(inputs);
+            dirty[id] = false;
+            if (tracer != null)
+                tracer.onComputeEnd(node, true);
+        }
+
+        Map<String, Object> targetInputs = inputValues(target);
+        if (targetInputs == null)
+            return false;
+        // The same as the normal demand pass: work out how many of each input the target needs from its outputs
+        target.askForElements();
+        for (GraphConnection<?> in : target.getInputs().values()) {
+            if (in == null)
+                continue;
+            @SuppressWarnings("unchecked")
+            GraphConnection<Object> input = (GraphConnection<Object>) in;
+            Object value = targetInputs.get(in.getName());
+            for (int remaining = in.getRequestedElements(); remaining > 0; remaining--) {
+                input.push(value);
+            }
+        }
+        while (target.computeIfCan()) {}
+        return true;
+    }
+
+    /** @return The cached value of every input of the given node, or null if any of them aren't connected. */
+    private Map<String, Object> inputValues(INode node) {
+        Map<String, Object> values = Maps.newHashMap();
+        for (GraphConnection<?> in : node.getInputs().values()) {
+            if (in == null || in.connectedOutput == null)
+                return null;
+            Map<String, Object> from = outputs[graph.idOf(in.connectedOutput.getNode())];
+            if (from == null)
+                return null;
+            values.put(in.getName(), from.get(in.connectedOutput.getName()));
+        }
+        return values;
+    }
+}
@@ -0,0 +1,244 @@
+/* Copyright (c) 2015 AlexIIL
+ *
+ * See the file "LICENSE" for copying permission. */
+package alexiil.node.core;
+
+import java.util.Spliterator;
+import java.util.function.Consumer;
+import java.util.function.DoubleConsumer;
+import java.util.function.LongConsumer;
+import java.util.stream.DoubleStream;
+import java.util.stream.LongStream;
+
+import alexiil.node.core.NodeGraph.DoubleConnection;
+import alexiil.node.core.NodeGraph.GraphConnection;
+import alexiil.node.core.NodeGraph.LongConnection;
+
+/** A node that pushes out the values of a source that is given to it after the graph is made, such as a
+ * {@link Spliterator}, a primitive stream or an array. The source is only ever read as far as the graph has asked for,
+ * in chunks of at most {@link #CHUNK} values, so a source of any size can be streamed through a graph without ever
+ * holding more than that (plus whatever the connections hold) in memory.
+ *
+ * The source is not part of the graph: copies of this start out without one, and it is not saved.
+ *
+ * @author AlexIIL
+ *
+ * @param <N> The type of value to supply */
+public class InputNode<N> extends AbstractNode {
+    /** The most values that are read from the source in one go. */
+    public static final int CHUNK = 1024;
+
+    private final Class<N> clazz;
+    private final GraphConnection<N> connection;
+    private Source source;
+    private boolean exhausted = false;
+
+    /** Reads values from wherever they came from and pushes them to the connection. */
+    private interface Source {
+        /** @return The number of values pushed, which is only less than count once the source has run out. */
+        int push(int count);
+    }
+
+    public InputNode(NodeRegistry registry, String typeTag, Class<N> clazz) {
+        super(registry, typeTag);
+        this.clazz = clazz;
+        connection = null;
+    }
+
+    public InputNode(NodeRegistry registry, String typeTag, NodeGraph graph, Class<N> clazz, String name) {
+        super(registry, typeTag, graph, name);
+        this.clazz = clazz;
+        connection = addOutput("val", clazz);
+    }
+
+    @Override
+    public AbstractNode createCopy(NodeGraph graph, String name) {
+        return new InputNode<N>(getRegistry(), getTypeTag(), graph, clazz, name);
+    }
+
+    /** Pushes out every element of the given spliterator, in order. If this outputs longs or doubles and the
+     * spliterator is the matching primitive one then none of the values are boxed. */
+    public void setSource(Spliterator<? extends N> spliterator) {
+        if (spliterator instanceof Spliterator.OfLong && connection instanceof LongConnection)
+            setSource(new LongSource((Spliterator.OfLong) spliterator));
+        else if (spliterator instanceof Spliterator.OfDouble && connection instanceof DoubleConnection)
+            setSource(new DoubleSource((Spliterator.OfDouble) spliterator));
+        else
+            setSource(new ObjectSource(spliterator));
+    }
+
+    /** Pushes out every value of the given stream, in order, without boxing any of them.
+     *
+     * @throws IllegalStateException if this doesn't output longs. */
+    public void setSource(LongStream stream) {
+        setSource(new LongSource(stream.spliterator()));
+    }
+
+    /** Pushes out every value of the given stream, in order, without boxing any of them.
+     *
+     * @throws IllegalStateException if this doesn't output doubles. */
+    public void setSource(DoubleStream stream) {
+        setSource(new DoubleSource(stream.spliterator()));
+    }
+
+    /** Pushes out count values of the given array, starting from offset. The values are pushed straight from the array
+     * (without copying it first) so it must not be changed until they have all been pushed.
+     *
+     * @throws IllegalStateException if this doesn't output longs. */
+    public void setSource(long[] values, int offset, int count) {
+        checkBounds(values.length, offset, count);
+        LongConnection longs = longs();
+        setSource(new Source() {
+            int position = offset;
+
+            @Override
+            public int push(int wanted) {
+                int n = Math.min(wanted, offset + count - position);
+                if (n > 0)
+                    longs.pushLongs(values, position, n);
+                position += n;
+                return n;
+            }
+        });
+    }
+
+    /** Pushes out count values of the given array, starting from offset. The values are pushed straight from the array
+     * (without copying it first) so it must not be changed until they have all been pushed.
+     *
+     * @throws IllegalStateException if this doesn't output doubles. */
+    public void setSource(double[] values, int offset, int count) {
+        checkBounds(values.length, offset, count);
+        DoubleConnection doubles = doubles();
+        setSource(new Source() {
+            int position = offset;
+
+            @Override
+            public int push(int wanted) {
+                int n = Math.min(wanted, offset + count - position);
+                if (n > 0)
+                    doubles.pushDoubles(values, position, n);
+                position += n;
+                return n;
+            }
+        });
+    }
+
+    private static void checkBounds(int length, int offset, int count) {
+        if (offset < 0 || count < 0 || offset > length - count)
+            throw new IndexOutOfBoundsException("offset = " + offset + ", count = " + count + ", length = " + length);
+    }
+
+    private void setSource(Source source) {
+        this.source = source;
+        exhausted = false;
+    }
+
+    /** @return True if there isn't a source, or if the graph has asked the current one for more values than it had. */
+    public boolean isExhausted() {
+        return source == null || exhausted;
+    }
+
+    private LongConnection longs() {
+        if (!(connection instanceof LongConnection))
+            throw new IllegalStateException(getName() + " does not output longs!");
+        return (LongConnection) connection;
+    }
+
+    private DoubleConnection doubles() {
+        if (!(connection instanceof DoubleConnection))
+            throw new IllegalStateException(getName() + " does not output doubles!");
+        return (DoubleConnection) connection;
+    }
+
+    @Override
+    protected boolean computeNext() {
+        if (source == null)
+            throw new IllegalStateException("No source has been set for " + getName());
+        boolean pushed = false;
+        int count = connection.getRequestedElements();
+        while (count > 0 && !exhausted) {
+            int wanted = Math.min(count, CHUNK);
+            int n = source.push(wanted);
+            if (n > 0)
+                pushed = true;
+            if (n < wanted)
+                exhausted = true;
+            count = connection.getRequestedElements();
+        }
+        return pushed;
+    }
+
+    private final class ObjectSource implements Source {
+        private final Spliterator<? extends N> spliterator;
+        private final Consumer<N> push = connection::push;
+
+        ObjectSource(Spliterator<? extends N> spliterator) {
+            this.spliterator = spliterator;
+        }
+
+        @Override
+        public int push(int count) {
+            int n = 0;
+            while (n < count && spliterator.tryAdvance(push)) {
+                n++;
+            }
+            return n;
+        }
+    }
+
+    /** Reads the values into a chunk first, so they can all be pushed at once. */
+    private final class LongSource implements Source, LongConsumer {
+        private final Spliterator.OfLong spliterator;
+        private final LongConnection longs = longs();
+        private long[] chunk = new long[0];
+        private int size;
+
+        LongSource(Spliterator.OfLong spliterator) {
+            this.spliterator = spliterator;
+        }
+
+        @Override
+        public int push(int count) {
+            if (chunk.length < count)
+                chunk = new long[Math.min(CHUNK, Math.max(count, chunk.length * 2))];
+            size = 0;
+            while (size < count && spliterator.tryAdvance(this)) {}
+            if (size > 0)
+                longs.pushLongs(chunk, 0, size);
+            return size;
+        }
+
+        @Override
+        public void accept(long value) {
+            chunk[size++] = value;
+        }
+    }
+
+    /** Reads the values into a chunk first, so they can all be pushed at once. */
+    private final class DoubleSource implements Source, DoubleConsumer {
+        private final Spliterator.OfDouble spliterator;
+        private final DoubleConnection doubles = doubles();
+        private double[] chunk = new double[0];
+        private int size;
+
+        DoubleSource(Spliterator.OfDouble spliterator) {
+            this.spliterator = spliterator;
+        }
+
+        @Override
+        public int push(int count) {
+            if (chunk.length < count)
+                chunk = new double[Math.min(CHUNK, Math.max(count, chunk.length * 2))];
+            size = 0;
+            while (size < count && spliterator.tryAdvance(this)) {}
+            if (size > 0)
+                doubles.pushDoubles(chunk, 0, size);
+            return size;
+        }
+
+        @Override
+        public void accept(double value) {
+            chunk[size++] = value;
+        }
+    }
+}
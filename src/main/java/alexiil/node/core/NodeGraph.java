@@ -3,27 +3,123 @@
  * See the file "LICENSE" for copying permission. */
 package alexiil.node.core;
 
+import java.io.PrintStream;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
-import java.util.Deque;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
 
-import com.google.common.collect.HashMultimap;
 import com.google.common.collect.Lists;
-import com.google.common.collect.Multimap;
-import com.google.common.collect.Queues;
+import com.google.common.collect.Maps;
 
 public class NodeGraph {
+    /** Every node, in the order they were added. A node's position in this is its id. */
     private final List<INode> nodes = Lists.newArrayList();
+    private final Map<INode, Integer> ids = Maps.newIdentityHashMap();
+    /** The id of the first node added with each name. */
+    private final Map<String, Integer> names = Maps.newHashMap();
 
-    private final Multimap<GraphConnection<?>, GraphConnection<?>> connections = HashMultimap.create();
+    /** Every connection, as the id of the node it comes from and the id of the node it goes to. */
+    private int[] edgeFrom = new int[16], edgeTo = new int[16];
+    private int edgeCount = 0;
+    private GraphTopology topology;
+
+    private final int connectionCapacity;
 
     private boolean isIterating = false;
+    private ExecutionPlan plan;
+    private GraphExecutor executor = GraphExecutor.SEQUENTIAL;
+    /** Read directly by the hot paths in nodes and connections so that having no tracer only costs a null check. */
+    GraphTracer tracer;
+    /** The pipeline that is currently streaming this graph, or null if this is using the normal pull-based mode. */
+    StreamingPipeline pipeline;
+    /** The cached outputs of every node, or null if this graph isn't incremental. */
+    private IncrementalState incremental;
+    final AsyncEvaluator async = new AsyncEvaluator(this);
+
+    /** Creates a graph whose connections can hold any number of elements. */
+    public NodeGraph() {
+        connectionCapacity = ConnectionBuffer.UNBOUNDED;
+    }
+
+    /** Creates a graph where every connection can hold at most the given number of elements. Nodes will not be asked
+     * for (or be allowed to compute) more elements than their outputs have room for, so a fast producer cannot make
+     * a slow consumer's connection grow.
+     * 
+     * @param connectionCapacity The maximum number of elements any connection can hold.
+     * @throws IllegalArgumentException if the capacity is not positive. */
+    public NodeGraph(int connectionCapacity) {
+        if (connectionCapacity <= 0)
+            throw new IllegalArgumentException("Capacity must be positive, but was " + connectionCapacity);
+        this.connectionCapacity = connectionCapacity;
+    }
+
+    /** @return The maximum number of elements each connection in this graph can hold. This is
+     *         {@link Integer#MAX_VALUE} if they are unbounded. */
+    public int getConnectionCapacity() {
+        return connectionCapacity;
+    }
+
+    boolean isIterating() {
+        return isIterating;
+    }
+
+    /** @return True if a {@link StreamingPipeline} is currently running this graph. */
+    public boolean isStreaming() {
+        return pipeline != null;
+    }
+
+    private void checkNotStreaming() {
+        if (pipeline != null)
+            throw new IllegalStateException("Cannot change a graph while it is streaming!");
+    }
 
     List<INode> getNodes() {
         return Collections.unmodifiableList(nodes);
     }
 
+    /** Creates a new graph with a copy of every node and connection in this one. None of the elements waiting in this
+     * graph's connections are copied, nor is its tracer, so the copy starts out exactly as if it had just been built or
+     * read. The copy uses the same {@link GraphExecutor} as this.
+     * 
+     * @return A new, independent, graph with the same structure as this one. */
+    public NodeGraph copy() {
+        NodeGraph copy = emptyCopy();
+        // This graph has already checked every node and connection, so they can be added without checking them again
+        Map<INode, INode> copies = Maps.newIdentityHashMap();
+        for (INode node : nodes) {
+            INode nodeCopy = node.createCopy(copy, node.getName());
+            copy.add(nodeCopy);
+            copies.put(node, nodeCopy);
+        }
+        for (INode node : nodes) {
+            for (GraphConnection<?> in : node.getInputs().values()) {
+                if (in == null || in.connectedOutput == null)
+                    continue;
+                GraphConnection<?> out = in.connectedOutput;
+                GraphConnection<?> inCopy = copies.get(node).getInputs().get(in.getName());
+                copy.connectCopy(copies.get(out.getNode()).getOutputs().get(out.getName()), inCopy);
+            }
+        }
+        return copy;
+    }
+
+    /** Connects two connections of a copy of this graph, which were connected (and so checked) in this graph. */
+    @SuppressWarnings("unchecked")
+    private <T> void connectCopy(GraphConnection<?> out, GraphConnection<T> in) {
+        connect((GraphConnection<? extends T>) out, in, in.getTypeClass(), ids.get(out.getNode()), ids.get(in.getNode()));
+    }
+
+    /** @return A new graph without any nodes, but with the same connection capacity and executor as this. */
+    NodeGraph emptyCopy() {
+        NodeGraph copy = connectionCapacity == ConnectionBuffer.UNBOUNDED ? new NodeGraph() : new NodeGraph(connectionCapacity);
+        copy.executor = executor;
+        return copy;
+    }
+
     public <N extends INode> N addCopyOf(N node, String name) {
         INode copy = node.createCopy(this, name);
         addNode(copy);
@@ -33,35 +129,56 @@ public class NodeGraph {
     public void addNode(INode node) {
         if (node == null)
             throw new NullPointerException("node");
-        if (nodes.contains(node))
+        if (ids.containsKey(node))
             throw new IllegalArgumentException("Already contained the node!");
         if (node.getGraph() != this)
             throw new IllegalArgumentException("The node was contained within a different graph!");
+        checkNotStreaming();
+        add(node);
+    }
+
+    private void add(INode node) {
+        int id = nodes.size();
         nodes.add(node);
+        ids.put(node, id);
+        names.putIfAbsent(node.getName(), id);
+        changed();
+    }
+
+    private void changed() {
+        plan = null;
+        topology = null;
     }
 
+    /** @return The first node that was added with the given name, or null if there isn't one. */
     public INode getNode(String name) {
-        for (INode node : nodes) {
-            if (node.getName().equals(name))
-                return node;
-        }
-        return null;
+        Integer id = names.get(name);
+        return id == null ? null : nodes.get(id);
+    }
+
+    /** @return The id of the given node (its position in this graph), or -1 if this graph does not contain it. */
+    int idOf(INode node) {
+        Integer id = ids.get(node);
+        return id == null ? -1 : id;
     }
 
     /** @param node The node to check
+     * @return The id of the node
      * @throws IllegalArgumentException if the node was invalid */
-    private void checkNode(INode node, String name) throws IllegalArgumentException {
+    private int checkNode(INode node, String name) throws IllegalArgumentException {
         if (node == null)
             throw new NullPointerException(name + " was null!");
-        if (!nodes.contains(node))
+        Integer id = ids.get(node);
+        if (id == null)
             throw new IllegalArgumentException("Did not contain " + node.getName() + " for " + name);
+        return id;
     }
 
     public void connectIO(INode fromNode, String fromName, INode toNode, String toName) {
-        checkNode(fromNode, "fromNode");
-        checkNode(toNode, "toNode");
+        int fromId = checkNode(fromNode, "fromNode");
+        int toId = checkNode(toNode, "toNode");
 
-        if (nodes.indexOf(fromNode) >= nodes.indexOf(toNode))
+        if (fromId >= toId)
             throw new IllegalArgumentException("Bad order!");
         if (!fromNode.getOutputs().containsKey(fromName))
             throw new IllegalArgumentException("Did not contain the output key " + fromName);
@@ -73,90 +190,271 @@ public class NodeGraph {
         GraphConnection in = toNode.getInputs().get(toName);
         // Basically if (out instanceof in)
         if (in.getTypeClass().isAssignableFrom(out.getTypeClass()))
-            connect(out, in, in.getTypeClass());
+            connect(out, in, in.getTypeClass(), fromId, toId);
         else
             throw new IllegalArgumentException("The nodes did not share a common class!");
     }
 
-    private <T> void connect(GraphConnection<? extends T> out, GraphConnection<T> in, Class<T> typeClass) {
-        connections.put(out, in);
+    private <T> void connect(GraphConnection<? extends T> out, GraphConnection<T> in, Class<T> typeClass, int fromId,
+            int toId) {
+        checkNotStreaming();
+        if (in.connectedOutput != null) {
+            // Replace the old connection rather than leaving it behind in the old output and the edge list
+            in.connectedOutput.connectedInputs.remove(in);
+        } else {
+            if (edgeCount == edgeFrom.length) {
+                edgeFrom = Arrays.copyOf(edgeFrom, edgeCount * 2);
+                edgeTo = Arrays.copyOf(edgeTo, edgeCount * 2);
+            }
+            in.edge = edgeCount++;
+        }
+        edgeFrom[in.edge] = fromId;
+        edgeTo[in.edge] = toId;
         in.connectedOutput = out;
         out.connectedInputs.add(in);
+        changed();
+    }
+
+    /** @return The node level structure of this graph. This is cached until the next time a node or connection is
+     *         added. */
+    GraphTopology topology() {
+        if (topology == null) {
+            topology = new GraphTopology(nodes.size(), edgeFrom, edgeTo, edgeCount);
+        }
+        return topology;
+    }
+
+    /** @return The execution plan for the current structure of this graph. This is cached until the next time a node
+     *         or connection is added. */
+    public ExecutionPlan compile() {
+        if (plan == null) {
+            plan = new ExecutionPlan(nodes.toArray(new INode[nodes.size()]), topology());
+        }
+        return plan;
+    }
+
+    /** Sets how this graph evaluates its nodes. Defaults to {@link GraphExecutor#SEQUENTIAL}.
+     * 
+     * @see ForkJoinExecutor */
+    public void setExecutor(GraphExecutor executor) {
+        if (executor == null)
+            throw new NullPointerException("executor");
+        this.executor = executor;
+    }
+
+    public GraphExecutor getExecutor() {
+        return executor;
+    }
+
+    /** Turns incremental evaluation on or off. While it is on every {@link INodeFoldable} node remembers the last values
+     * of its outputs, and is only computed again after something upstream of it has changed (either the structure of
+     * the graph, or the value of a {@link ValueNode#setValue(Object) value node}). So evaluating a node after a small
+     * change only recomputes the nodes that the change affected.
+     * 
+     * Nodes that depend on anything that isn't {@link INodeFoldable} are evaluated normally. */
+    public void setIncremental(boolean incremental) {
+        if (incremental != (this.incremental != null))
+            this.incremental = incremental ? new IncrementalState(this) : null;
+    }
+
+    public boolean isIncremental() {
+        return incremental != null;
+    }
+
+    /** Called by value nodes after their value has changed. */
+    void valueChanged(INode node) {
+        IncrementalState incremental = this.incremental;
+        int id = idOf(node);
+        if (incremental != null && id >= 0)
+            incremental.markDirty(id);
+    }
+
+    /** Sets the tracer that will be told about everything that happens while this graph is evaluated.
+     * 
+     * @param tracer The new tracer, or null to remove the current one. */
+    public void setTracer(GraphTracer tracer) {
+        this.tracer = tracer;
+    }
+
+    /** @return The current tracer, or null if this doesn't have one. */
+    public GraphTracer getTracer() {
+        return tracer;
     }
 
     public void printState() {
-        for (INode node : nodes) {
-            System.out.println("Node #" + nodes.indexOf(node) + " called " + node.getName());
+        printState(System.out);
+    }
+
+    public void printState(PrintStream out) {
+        for (int i = 0; i < nodes.size(); i++) {
+            INode node = nodes.get(i);
+            out.println("Node #" + i + " called " + node.getName());
             if (node instanceof AbstractNode) {
                 AbstractNode abs = (AbstractNode) node;
-                abs.printState();
+                abs.printState(out);
             }
         }
     }
 
     public <E> GraphConnection<E> provideOutputConnection(INode node, String outputName, Class<E> clazz) {
-        GraphConnection<E> conn = new GraphConnection<E>(clazz, node, outputName);
+        GraphConnection<E> conn = createConnection(clazz, node, outputName);
+        conn.output = true;
         // Hmmm. I feel like I should do something here
         return conn;
     }
 
     public <E> GraphConnection<E> provideInputConnection(INode node, String inputName, Class<E> clazz) {
-        GraphConnection<E> conn = new GraphConnection<E>(clazz, node, inputName);
+        GraphConnection<E> conn = createConnection(clazz, node, inputName);
         // Hmmm. I feel like I should do something here
         return conn;
     }
 
+    /** Creates a connection that stores primitives directly for {@link Long} and {@link Double}, so they are never
+     * boxed. */
+    @SuppressWarnings("unchecked")
+    private <E> GraphConnection<E> createConnection(Class<E> clazz, INode node, String name) {
+        if (clazz == Long.class)
+            return (GraphConnection<E>) new LongConnection(node, name);
+        if (clazz == Double.class)
+            return (GraphConnection<E>) new DoubleConnection(node, name);
+        return new GraphConnection<E>(clazz, node, name);
+    }
+
+    /** Evaluates every node in this graph once, pushing out as many elements as have been requested. This does nothing
+     * while the graph is streaming, as every node is already being computed. */
     public void iterate() {
+        if (isIterating || pipeline != null)
+            return;
+        isIterating = true;
+        GraphTracer tracer = this.tracer;
+        if (tracer != null)
+            tracer.onIterationStart(this);
+        try {
+            ExecutionPlan plan = compile();
+            executor.execute(plan, plan.fullSchedule());
+        } finally {
+            isIterating = false;
+            if (tracer != null)
+                tracer.onIterationEnd(this);
+        }
+    }
+
+    /** Evaluates only the nodes that the given node depends on (and the node itself), pushing out as many elements as
+     * have been requested. While the graph is streaming this instead blocks until every input of the target has an
+     * element.
+     * 
+     * @param target The node to evaluate. */
+    public void iterate(INode target) {
+        int id = checkNode(target, "target");
+        StreamingPipeline pipeline = this.pipeline;
+        if (pipeline != null) {
+            pipeline.awaitInputs(target);
+            return;
+        }
         if (isIterating)
             return;
         isIterating = true;
-        boolean computed;
-        do {
-            propagateOutputRequests();
-            int n = 0;
-            computed = false;
-            for (INode node : nodes) {
-                System.out.println("    Loop START " + n);
-                computed |= node.computeIfCan();
-                System.out.println("    Loop END " + n++);
+        GraphTracer tracer = this.tracer;
+        if (tracer != null)
+            tracer.onIterationStart(this);
+        try {
+            IncrementalState incremental = this.incremental;
+            if (incremental == null || !incremental.evaluate(target, id)) {
+                ExecutionPlan plan = compile();
+                executor.execute(plan, plan.schedule(id));
             }
-        } while (computed);
-        isIterating = false;
-    }
-
-    /** Pushes the requests up the list of nodes from bottom up. Returns something? Does it even need to? */
-    private void propagateOutputRequests() {
-        int i = nodes.size();
-        for (INode node : Lists.reverse(nodes)) {
-            System.out.println("Request START " + --i);
-            node.askForElements();
-            for (GraphConnection<?> conn : node.getInputs().values()) {
-                if (conn.getRequestedElements() > 0) {
-                    GraphConnection<?> out = conn.connectedOutput;
-                    int max = out.getRequestedElements();
-                    for (GraphConnection<?> conn2 : out.connectedInputs) {
-                        max = Math.max(max, conn2.getRequestedElements());
-                    }
-                    out.requestUpTo(max);
+        } finally {
+            isIterating = false;
+            if (tracer != null)
+                tracer.onIterationEnd(this);
+        }
+    }
+
+    /** Evaluates the given nodes together: every node that more than one of them depends on is only visited once.
+     * 
+     * @param targets The nodes to evaluate. */
+    public void iterate(Collection<? extends INode> targets) {
+        int[] ids = new int[targets.size()];
+        int count = 0;
+        for (INode target : targets) {
+            ids[count++] = checkNode(target, "target");
+        }
+        StreamingPipeline pipeline = this.pipeline;
+        if (pipeline != null) {
+            for (INode target : targets) {
+                pipeline.awaitInputs(target);
+            }
+            return;
+        }
+        if (isIterating || count == 0)
+            return;
+        isIterating = true;
+        GraphTracer tracer = this.tracer;
+        if (tracer != null)
+            tracer.onIterationStart(this);
+        try {
+            IncrementalState incremental = this.incremental;
+            if (incremental != null) {
+                // Only the targets that can't be evaluated incrementally are left for the plan
+                int left = 0;
+                for (INode target : targets) {
+                    int id = idOf(target);
+                    if (!incremental.evaluate(target, id))
+                        ids[left++] = id;
                 }
+                count = left;
             }
+            if (count > 0) {
+                ExecutionPlan plan = compile();
+                executor.execute(plan, plan.schedule(count == ids.length ? ids : Arrays.copyOf(ids, count)));
+            }
+        } finally {
+            isIterating = false;
+            if (tracer != null)
+                tracer.onIterationEnd(this);
         }
     }
 
+    /** Evaluates the next value of every given return node on the given executor, in a single pass over the graph
+     * (along with any other asynchronous requests for this graph that are waiting to start). The same node can be given
+     * more than once to get more than one of its values.
+     * 
+     * @return A future that completes with the values, in the same order as the nodes.
+     * @see ReturnNode#getAsync(Executor) */
+    public CompletableFuture<List<Object>> evaluateAsync(Executor executor, ReturnNode<?>... nodes) {
+        List<CompletableFuture<Object>> futures = async.submit(executor, nodes);
+        return CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[futures.size()])).thenApply(v -> {
+            List<Object> values = Lists.newArrayListWithCapacity(futures.size());
+            for (CompletableFuture<Object> future : futures) {
+                values.add(future.join());
+            }
+            return values;
+        });
+    }
+
     public class GraphConnection<E> {
         final List<GraphConnection<? super E>> connectedInputs = Lists.newArrayList();
         GraphConnection<? extends E> connectedOutput;
+        /** The index of this input's edge in the graph's edge list, or -1 if this has never been connected. */
+        int edge = -1;
         private final Class<E> clazz;
         private final INode node;
         private final String name;
 
-        private final Deque<E> internalDeque = Queues.newArrayDeque();
-        private int requested = 0;
+        ConnectionBuffer buffer;
+        boolean output;
+        /** Whatever the {@link GraphMetrics} attached to the graph keeps for this connection. */
+        Object metricsStats;
 
         public GraphConnection(Class<E> clazz, INode node, String name) {
+            this(clazz, node, name, new ConnectionBuffer.OfObject<E>(connectionCapacity));
+        }
+
+        GraphConnection(Class<E> clazz, INode node, String name, ConnectionBuffer buffer) {
             this.clazz = clazz;
             this.node = node;
             this.name = name;
+            this.buffer = buffer;
         }
 
         public Class<E> getTypeClass() {
@@ -167,52 +465,99 @@ public class NodeGraph {
             return node;
         }
 
+        /** @return True if this is one of the outputs of its node, false if it is an input. */
+        public boolean isOutput() {
+            return output;
+        }
+
+        /** @return The output that this input is connected to, or null if this is an output or isn't connected. */
+        public GraphConnection<? extends E> getConnectedOutput() {
+            return connectedOutput;
+        }
+
         public void push(E val) {
-            String call = connectedOutput == null ? "output" : "input";
-            System.out.println("State of " + call + " " + name + " for node " + node.getName() + " before pushing");
-            ((AbstractNode) node).printState();
-            if (requested > 0) {
-                requested--;
-            }
             if (connectedOutput == null) {
                 for (GraphConnection<? super E> conn : connectedInputs) {
                     conn.push(val);
                 }
             } else {
-                internalDeque.push(val);
+                buffer.put(val);
             }
-            System.out.println("State of " + call + " " + name + " for node " + node.getName() + " AFTER pushing");
-            ((AbstractNode) node).printState();
+            pushed(1);
+        }
+
+        /** Updates the requested count (and tells the tracer) after elements have been pushed. */
+        final void pushed(int count) {
+            StreamingPipeline pipeline = NodeGraph.this.pipeline;
+            if (pipeline == null)
+                buffer.requested = Math.max(0, buffer.requested - count);
+            else
+                pipeline.onChange(this, false);
+            GraphTracer tracer = NodeGraph.this.tracer;
+            if (tracer != null)
+                tracer.onPush(this, count);
+        }
+
+        final void popped(int count) {
+            StreamingPipeline pipeline = NodeGraph.this.pipeline;
+            if (pipeline != null)
+                pipeline.onChange(this, true);
+            GraphTracer tracer = NodeGraph.this.tracer;
+            if (tracer != null)
+                tracer.onPop(this, count);
         }
 
+        /** @return The oldest element in this connection. */
+        @SuppressWarnings("unchecked")
         public E pop() {
-            if (getRemainingElements() == 0)
-                throw new IllegalStateException("Not enough elements!");
-            return internalDeque.pop();
+            E val = (E) buffer.take();
+            popped(1);
+            return val;
         }
 
         public int getRemainingElements() {
-            return internalDeque.size();
+            return buffer.size();
         }
 
+        /** @return The number of elements that should be pushed to this connection. While the graph is streaming this is
+         *         the credit of an output instead: the number of elements it can push without filling up any of the
+         *         inputs it is connected to. */
         public int getRequestedElements() {
-            return requested;
+            if (output && pipeline != null)
+                return connectedInputs.isEmpty() ? 0 : getFreeSpace();
+            return buffer.requested;
+        }
+
+        /** @return The number of elements that can be pushed to this connection before it is full. For outputs this is
+         *         the smallest amount of space left in any of the connected inputs. */
+        public int getFreeSpace() {
+            if (connectedOutput != null)
+                return buffer.freeSpace();
+            int free = Integer.MAX_VALUE;
+            for (GraphConnection<? super E> conn : connectedInputs) {
+                free = Math.min(free, conn.getFreeSpace());
+            }
+            return free;
+        }
+
+        /** @return The maximum number of elements this connection can hold. */
+        public int getCapacity() {
+            return buffer.capacity;
         }
 
         public String getName() {
             return name;
         }
 
-        /** Requests that the number of elements be available to use */
+        /** Requests that the number of elements be available to use. This will never request more elements than there
+         * is space for, so a full connection stops anything upstream from producing more. */
         public void requestUpTo(int count) {
-            String call = connectedOutput == null ? "output" : "input";
-            System.out.println("State of " + call + " " + name + " for node " + node.getName() + " before requesting " + count);
-            ((AbstractNode) node).printState();
-
-            requested = Math.max(requested, count - getRemainingElements());
+            int wanted = Math.max(buffer.requested, count - getRemainingElements());
+            buffer.requested = Math.max(0, Math.min(wanted, getFreeSpace()));
 
-            System.out.println("State of " + call + " " + name + " for node " + node.getName() + " AFTER requesting " + count);
-            ((AbstractNode) node).printState();
+            GraphTracer tracer = NodeGraph.this.tracer;
+            if (tracer != null)
+                tracer.onRequest(this, count);
         }
 
         @Override
@@ -223,7 +568,137 @@ public class NodeGraph {
             for (int i = 0; i < ins.length; i++) {
                 ins[i] = connectedInputs.get(i).node.getName() + "." + connectedInputs.get(i).name;
             }
-            return "requested = " + requested + ", input = " + out + ", outputs = " + Arrays.toString(ins) + ", elements = " + internalDeque;
+            return "requested = " + buffer.requested + ", input = " + out + ", outputs = " + Arrays.toString(ins) + ", elements = " + buffer
+                    .elementsToString();
+        }
+    }
+
+    /** A connection that stores unboxed longs. Use {@link #pushLong(long)} and {@link #popLong()} to avoid boxing- the
+     * generic {@link #push(Long)} and {@link #pop()} still work for nodes that don't know about primitives. */
+    public class LongConnection extends GraphConnection<Long> {
+        public LongConnection(INode node, String name) {
+            super(Long.class, node, name, new ConnectionBuffer.OfLong(connectionCapacity));
+        }
+
+        public void pushLong(long val) {
+            if (connectedOutput == null) {
+                for (GraphConnection<? super Long> conn : connectedInputs) {
+                    if (conn instanceof LongConnection) {
+                        ((LongConnection) conn).pushLong(val);
+                    } else {
+                        conn.push(val);
+                    }
+                }
+            } else {
+                ((ConnectionBuffer.OfLong) buffer).putLong(val);
+            }
+            pushed(1);
+        }
+
+        public long popLong() {
+            long val = ((ConnectionBuffer.OfLong) buffer).takeLong();
+            popped(1);
+            return val;
+        }
+
+        /** Pushes a whole chunk of values at once. This is the same as calling {@link #pushLong(long)} for each of them in
+         * order, but copies them in bulk. */
+        public void pushLongs(long[] values, int offset, int count) {
+            if (connectedOutput == null) {
+                for (GraphConnection<? super Long> conn : connectedInputs) {
+                    if (conn instanceof LongConnection) {
+                        ((LongConnection) conn).pushLongs(values, offset, count);
+                    } else {
+                        for (int i = 0; i < count; i++) {
+                            conn.push(values[offset + i]);
+                        }
+                    }
+                }
+            } else {
+                ((ConnectionBuffer.OfLong) buffer).putLongs(values, offset, count);
+            }
+            pushed(count);
+        }
+
+        /** Pops the oldest count values into the given array, in order. */
+        public void popLongs(long[] into, int offset, int count) {
+            ((ConnectionBuffer.OfLong) buffer).takeLongs(into, offset, count);
+            popped(count);
+        }
+
+        @Override
+        public void push(Long val) {
+            pushLong(val);
+        }
+
+        @Override
+        public Long pop() {
+            return popLong();
+        }
+    }
+
+    /** A connection that stores unboxed doubles. Use {@link #pushDouble(double)} and {@link #popDouble()} to avoid
+     * boxing- the generic {@link #push(Double)} and {@link #pop()} still work for nodes that don't know about
+     * primitives. */
+    public class DoubleConnection extends GraphConnection<Double> {
+        public DoubleConnection(INode node, String name) {
+            super(Double.class, node, name, new ConnectionBuffer.OfDouble(connectionCapacity));
+        }
+
+        public void pushDouble(double val) {
+            if (connectedOutput == null) {
+                for (GraphConnection<? super Double> conn : connectedInputs) {
+                    if (conn instanceof DoubleConnection) {
+                        ((DoubleConnection) conn).pushDouble(val);
+                    } else {
+                        conn.push(val);
+                    }
+                }
+            } else {
+                ((ConnectionBuffer.OfDouble) buffer).putDouble(val);
+            }
+            pushed(1);
+        }
+
+        public double popDouble() {
+            double val = ((ConnectionBuffer.OfDouble) buffer).takeDouble();
+            popped(1);
+            return val;
+        }
+
+        /** Pushes a whole chunk of values at once. This is the same as calling {@link #pushDouble(double)} for each of them in
+         * order, but copies them in bulk. */
+        public void pushDoubles(double[] values, int offset, int count) {
+            if (connectedOutput == null) {
+                for (GraphConnection<? super Double> conn : connectedInputs) {
+                    if (conn instanceof DoubleConnection) {
+                        ((DoubleConnection) conn).pushDoubles(values, offset, count);
+                    } else {
+                        for (int i = 0; i < count; i++) {
+                            conn.push(values[offset + i]);
+                        }
+                    }
+                }
+            } else {
+                ((ConnectionBuffer.OfDouble) buffer).putDoubles(values, offset, count);
+            }
+            pushed(count);
+        }
+
+        /** Pops the oldest count values into the given array, in order. */
+        public void popDoubles(double[] into, int offset, int count) {
+            ((ConnectionBuffer.OfDouble) buffer).takeDoubles(into, offset, count);
+            popped(count);
+        }
+
+        @Override
+        public void push(Double val) {
+            pushDouble(val);
+        }
+
+        @Override
+        public Double pop() {
+            return popDouble();
         }
     }
 }
@@ -0,0 +1,75 @@
+/* Copyright (c) 2015 AlexIIL
+ *
+ * See the file "LICENSE" for copying permission. */
+package alexiil.node.core;
+
+import java.io.PrintStream;
+
+import alexiil.node.core.NodeGraph.GraphConnection;
+
+/** A {@link GraphTracer} that prints out every event (and the state of the nodes involved) as it happens. This is very
+ * slow, so it should only be used for debugging small graphs.
+ * 
+ * @author AlexIIL */
+public class PrintingTracer implements GraphTracer {
+    private final PrintStream out;
+
+    public PrintingTracer() {
+        this(System.out);
+    }
+
+    public PrintingTracer(PrintStream out) {
+        this.out = out;
+    }
+
+    @Override
+    public void onIterationStart(NodeGraph graph) {
+        out.println("Iteration START");
+    }
+
+    @Override
+    public void onIterationEnd(NodeGraph graph) {
+        out.println("Iteration END");
+    }
+
+    @Override
+    public void onRequest(GraphConnection<?> connection, int count) {
+        out.println("State of " + describe(connection) + " AFTER requesting " + count);
+        printState(connection.getNode());
+    }
+
+    @Override
+    public void onPush(GraphConnection<?> connection, int count) {
+        out.println("State of " + describe(connection) + " AFTER pushing " + count);
+        printState(connection.getNode());
+    }
+
+    @Override
+    public void onPop(GraphConnection<?> connection, int count) {
+        out.println("State of " + describe(connection) + " AFTER popping " + count);
+        printState(connection.getNode());
+    }
+
+    @Override
+    public void onComputeStart(INode node) {
+        out.println("State of " + node.getName() + " before computing");
+        printState(node);
+    }
+
+    @Override
+    public void onComputeEnd(INode node, boolean pushed) {
+        out.println("State of " + node.getName() + " AFTER computing");
+        printState(node);
+    }
+
+    private static String describe(GraphConnection<?> connection) {
+        String call = connection.isOutput() ? "output" : "input";
+        return call + " " + connection.getName() + " for node " + connection.getNode().getName();
+    }
+
+    private void printState(INode node) {
+        if (node instanceof AbstractNode) {
+            ((AbstractNode) node).printState(out);
+        }
+    }
+}
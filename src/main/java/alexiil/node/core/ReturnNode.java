@@ -3,9 +3,16 @@
  * See the file "LICENSE" for copying permission. */
 package alexiil.node.core;
 
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
 import com.google.common.base.Supplier;
+import com.google.common.collect.Lists;
 
+import alexiil.node.core.NodeGraph.DoubleConnection;
 import alexiil.node.core.NodeGraph.GraphConnection;
+import alexiil.node.core.NodeGraph.LongConnection;
 
 /** @author AlexIIL
  *
@@ -43,10 +50,105 @@ public class ReturnNode<V> extends AbstractNode implements Supplier<V> {
     public V get() {
         try {
             connection.requestUpTo(1);
-            getGraph().iterate();
+            getGraph().iterate(this);
             return in.get();
         } catch (Throwable t) {
             throw new IllegalStateException("Could not GET for " + getName(), t);
         }
     }
+
+    /** Evaluates the next value on the given executor instead of the calling thread. Every request for this graph that
+     * is made before the evaluation starts (including ones for other return nodes) is evaluated at the same time, so
+     * the nodes that they share are only computed once.
+     * 
+     * The graph must not be used directly (for example with {@link #get()}) while this is waiting to complete. */
+    @SuppressWarnings("unchecked")
+    public CompletableFuture<V> getAsync(Executor executor) {
+        return (CompletableFuture<V>) (CompletableFuture<?>) getGraph().async.submit(executor, this).get(0);
+    }
+
+    /** Evaluates the next n values in as few passes over the graph as possible. Each pass asks for as many values as the
+     * connection can hold, so an unbounded graph computes all of them at once.
+     * 
+     * @return A new list with the next n values, in order. */
+    public List<V> get(int n) {
+        try {
+            List<V> values = Lists.newArrayListWithCapacity(n);
+            while (values.size() < n) {
+                int count = evaluate(n - values.size());
+                for (int i = 0; i < count; i++) {
+                    values.add(connection.pop());
+                }
+            }
+            return values;
+        } catch (Throwable t) {
+            throw new IllegalStateException("Could not GET " + n + " for " + getName(), t);
+        }
+    }
+
+    /** Fills the given array with the next values, without boxing any of them.
+     * 
+     * @throws IllegalStateException if this doesn't return longs. */
+    public void get(long[] into) {
+        if (!(connection instanceof LongConnection))
+            throw new IllegalStateException(getName() + " does not return longs!");
+        LongConnection longs = (LongConnection) connection;
+        try {
+            int done = 0;
+            while (done < into.length) {
+                int count = evaluate(into.length - done);
+                for (int i = 0; i < count; i++) {
+                    into[done++] = longs.popLong();
+                }
+            }
+        } catch (Throwable t) {
+            throw new IllegalStateException("Could not GET " + into.length + " for " + getName(), t);
+        }
+    }
+
+    /** Fills the given array with the next values, without boxing any of them.
+     * 
+     * @throws IllegalStateException if this doesn't return doubles. */
+    public void get(double[] into) {
+        if (!(connection instanceof DoubleConnection))
+            throw new IllegalStateException(getName() + " does not return doubles!");
+        DoubleConnection doubles = (DoubleConnection) connection;
+        try {
+            int done = 0;
+            while (done < into.length) {
+                int count = evaluate(into.length - done);
+                for (int i = 0; i < count; i++) {
+                    into[done++] = doubles.popDouble();
+                }
+            }
+        } catch (Throwable t) {
+            throw new IllegalStateException("Could not GET " + into.length + " for " + getName(), t);
+        }
+    }
+
+    /** Requests up to the given number of values, limited by the capacity of the connection. */
+    void requestValues(int wanted) {
+        connection.requestUpTo(Math.min(wanted, connection.getCapacity()));
+    }
+
+    boolean hasValue() {
+        return connection.getRemainingElements() > 0;
+    }
+
+    V popValue() {
+        return connection.pop();
+    }
+
+    /** Requests up to the given number of values (limited by the capacity of the connection) and evaluates the graph
+     * once.
+     * 
+     * @return The number of values that can now be popped, which is always at least 1. */
+    private int evaluate(int wanted) {
+        requestValues(wanted);
+        getGraph().iterate(this);
+        int available = Math.min(wanted, connection.getRemainingElements());
+        if (available <= 0)
+            throw new IllegalStateException("The graph did not compute anything!");
+        return available;
+    }
 }
@@ -0,0 +1,158 @@
+/* Copyright (c) 2015 AlexIIL
+ *
+ * See the file "LICENSE" for copying permission. */
+package alexiil.node.core;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import com.google.common.collect.Maps;
+
+import alexiil.node.core.NodeGraph.GraphConnection;
+
+/** An immutable snapshot of a {@link NodeGraph} that any number of threads can evaluate at the same time. All of the
+ * state that changes during an evaluation lives in an {@link ExecutionContext} instead, which are pooled so that
+ * evaluating a graph doesn't normally need to allocate one.
+ *
+ * Return nodes that only depend on {@link INodeFoldable} nodes are evaluated by folding every node they need in order,
+ * with each context holding nothing more than the value of every output. Any others are evaluated normally, on a copy
+ * of the graph that each context makes the first time it needs one.
+ *
+ * @author AlexIIL */
+public final class SharedGraph {
+    /** The private copy that all of this is made from. This is never changed or evaluated, only copied. */
+    final NodeGraph template;
+    final List<INode> nodes;
+    /** The names of the inputs and outputs of each node, in the order that their values are stored in. */
+    final String[][] inputNames, outputNames;
+    /** The slot that each input of each node reads from, or -1 if the input isn't connected. */
+    final int[][] inputSlots;
+    /** The slot of the first output of each node. The rest of its outputs follow on from it. */
+    final int[] outputSlot;
+    final int slotCount;
+    private final Map<String, Target> targets;
+    private final Queue<ExecutionContext> pool = new ConcurrentLinkedQueue<>();
+
+    /** The nodes that one return node needs to have folded before it can be read. */
+    static final class Target {
+        /** The ids of the nodes to fold, in order, or null if the return node must be evaluated normally. */
+        final int[] order;
+        /** The slot that the return node reads its value from. */
+        final int slot;
+
+        Target(int[] order, int slot) {
+            this.order = order;
+            this.slot = slot;
+        }
+    }
+
+    /** Takes a snapshot of the given graph. Changing the graph afterwards does not affect this. */
+    public SharedGraph(NodeGraph graph) {
+        template = graph.copy();
+        nodes = template.getNodes();
+        int count = nodes.size();
+        inputNames = new String[count][];
+        outputNames = new String[count][];
+        inputSlots = new int[count][];
+        outputSlot = new int[count];
+
+        Map<GraphConnection<?>, Integer> slots = Maps.newIdentityHashMap();
+        int slot = 0;
+        for (int i = 0; i < count; i++) {
+            Map<String, GraphConnection<?>> outputs = nodes.get(i).getOutputs();
+            outputNames[i] = outputs.keySet().toArray(new String[outputs.size()]);
+            outputSlot[i] = slot;
+            for (String name : outputNames[i]) {
+                slots.put(outputs.get(name), slot++);
+            }
+        }
+        slotCount = slot;
+
+        for (int i = 0; i < count; i++) {
+            Map<String, GraphConnection<?>> inputs = nodes.get(i).getInputs();
+            inputNames[i] = inputs.keySet().toArray(new String[inputs.size()]);
+            inputSlots[i] = new int[inputNames[i].length];
+            for (int j = 0; j < inputNames[i].length; j++) {
+                GraphConnection<?> in = inputs.get(inputNames[i][j]);
+                Integer from = in == null || in.connectedOutput == null ? null : slots.get(in.connectedOutput);
+                inputSlots[i][j] = from == null ? -1 : from;
+            }
+        }
+
+        Map<String, Target> targets = Maps.newHashMap();
+        GraphTopology topology = template.topology();
+        for (int i = 0; i < count; i++) {
+            INode node = nodes.get(i);
+            if (node instanceof ReturnNode && !targets.containsKey(node.getName()))
+                targets.put(node.getName(), createTarget(topology, i));
+        }
+        this.targets = Collections.unmodifiableMap(targets);
+    }
+
+    private Target createTarget(GraphTopology topology, int target) {
+        int slot = inputSlots[target].length == 1 ? inputSlots[target][0] : -1;
+        if (slot < 0)
+            return new Target(null, -1);
+        boolean[] visited = new boolean[topology.nodeCount];
+        int[] stack = new int[topology.nodeCount];
+        int[] order = new int[topology.nodeCount];
+        int stackSize = 0, count = 0;
+        stack[stackSize++] = target;
+        while (stackSize > 0) {
+            int index = stack[--stackSize];
+            for (int u = topology.upstreamStart[index]; u < topology.upstreamStart[index + 1]; u++) {
+                int up = topology.upstream[u];
+                if (visited[up])
+                    continue;
+                if (!(nodes.get(up) instanceof INodeFoldable))
+                    return new Target(null, slot);
+                for (int from : inputSlots[up]) {
+                    if (from < 0)
+                        return new Target(null, slot);
+                }
+                visited[up] = true;
+                stack[stackSize++] = up;
+                order[count++] = up;
+            }
+        }
+        // Ids are in topological order, so sorting them gives an order that every node can be folded in
+        order = Arrays.copyOf(order, count);
+        Arrays.sort(order);
+        return new Target(order, slot);
+    }
+
+    /** @throws IllegalArgumentException if this doesn't have a return node with the given name. */
+    Target getTarget(String returnName) {
+        Target target = targets.get(returnName);
+        if (target == null)
+            throw new IllegalArgumentException("Did not contain a return node called " + returnName);
+        return target;
+    }
+
+    /** @return True if the given return node can be evaluated without copying the graph. */
+    public boolean isFoldable(String returnName) {
+        return getTarget(returnName).order != null;
+    }
+
+    /** @return A context that nothing else is using, either from the pool or a new one. Call
+     *         {@link ExecutionContext#close()} to give it back once you have finished with it. */
+    public ExecutionContext acquire() {
+        ExecutionContext context = pool.poll();
+        return context == null ? new ExecutionContext(this) : context;
+    }
+
+    void release(ExecutionContext context) {
+        pool.offer(context);
+    }
+
+    /** Evaluates the given return node once, using a pooled context. This is safe to call from any thread. */
+    public <V> V get(String returnName, Class<V> type) {
+        try (ExecutionContext context = acquire()) {
+            return context.get(returnName, type);
+        }
+    }
+}
@@ -0,0 +1,266 @@
+/* Copyright (c) 2015 AlexIIL
+ *
+ * See the file "LICENSE" for copying permission. */
+package alexiil.node.core;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+import alexiil.node.core.NodeGraph.GraphConnection;
+
+/** Runs every node of a graph continuously on its own thread, so each node works on the next element while the nodes
+ * after it are still working on the previous ones. Throughput is then limited by the slowest node rather than by the
+ * sum of all of them.
+ *
+ * While a pipeline is running every connection is a bounded single-producer, single-consumer queue, and the pull-based
+ * demand protocol becomes credit-based: {@link GraphConnection#getRequestedElements()} of an output is the free space
+ * left in the inputs it is connected to, so a node keeps computing for as long as it has inputs and credit. A node that
+ * can't compute parks its thread until a connection it uses changes.
+ *
+ * {@link ReturnNode}s don't get a thread: {@link ReturnNode#get()} blocks the caller until the next element arrives.
+ * The pipeline uses fresh connections for as long as it runs. Closing it stops every thread and puts the graph back
+ * into its normal, pull-based mode- any elements still in flight are thrown away.
+ *
+ * Each node only needs a small amount of stack and spends most of its time parked, so on Java 21 or later
+ * <code>Thread.ofVirtual().factory()</code> is a good thread factory to pass to
+ * {@link #start(NodeGraph, int, ThreadFactory)}. The default creates one daemon platform thread per node.
+ *
+ * @author AlexIIL */
+public final class StreamingPipeline implements AutoCloseable {
+    /** The capacity of every connection when the graph itself is unbounded. */
+    public static final int DEFAULT_CAPACITY = 256;
+
+    private static final AtomicInteger THREAD_COUNT = new AtomicInteger();
+    private static final ThreadFactory DEFAULT_FACTORY = (r) -> {
+        Thread thread = new Thread(r, "node-graph-stream-" + THREAD_COUNT.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+    };
+
+    private final NodeGraph graph;
+    private final Map<INode, Stage> stages = new IdentityHashMap<>();
+    private final Map<GraphConnection<?>, ConnectionBuffer> replaced = new IdentityHashMap<>();
+    private volatile boolean running = true;
+    private volatile Throwable failure;
+
+    private StreamingPipeline(NodeGraph graph, int capacity) {
+        this.graph = graph;
+        for (INode node : graph.getNodes()) {
+            stages.put(node, new Stage(node));
+            for (GraphConnection<?> conn : node.getInputs().values()) {
+                replaceBuffer(conn, capacity);
+            }
+            for (GraphConnection<?> conn : node.getOutputs().values()) {
+                replaceBuffer(conn, capacity);
+            }
+        }
+    }
+
+    private void replaceBuffer(GraphConnection<?> conn, int capacity) {
+        if (conn == null)
+            return;
+        replaced.put(conn, conn.buffer);
+        conn.buffer = conn.buffer.newEmpty(capacity);
+    }
+
+    /** Starts streaming the given graph with {@link #DEFAULT_CAPACITY} (or the graph's own capacity, if it is smaller)
+     * elements per connection and one daemon thread per node. */
+    public static StreamingPipeline start(NodeGraph graph) {
+        return start(graph, Math.min(DEFAULT_CAPACITY, graph.getConnectionCapacity()), DEFAULT_FACTORY);
+    }
+
+    /** Starts streaming the given graph.
+     *
+     * @param capacity The maximum number of elements each connection can hold while streaming.
+     * @param threadFactory The factory used to create the thread for every node.
+     * @throws IllegalStateException if the graph is already streaming or is being iterated. */
+    public static StreamingPipeline start(NodeGraph graph, int capacity, ThreadFactory threadFactory) {
+        if (threadFactory == null)
+            throw new NullPointerException("threadFactory");
+        if (capacity <= 0 || capacity > ConnectionBuffer.MAX_BOUNDED_CAPACITY)
+            throw new IllegalArgumentException("Capacity must be between 1 and " + ConnectionBuffer.MAX_BOUNDED_CAPACITY
+                + ", but was " + capacity);
+        if (graph.pipeline != null)
+            throw new IllegalStateException("The graph is already streaming!");
+        if (graph.isIterating())
+            throw new IllegalStateException("Cannot start streaming while the graph is being iterated!");
+
+        StreamingPipeline pipeline = new StreamingPipeline(graph, capacity);
+        graph.pipeline = pipeline;
+        for (Stage stage : pipeline.stages.values()) {
+            if (!(stage.node instanceof ReturnNode)) {
+                stage.worker = threadFactory.newThread(pipeline.new Worker(stage));
+                stage.thread = stage.worker;
+            }
+        }
+        for (Stage stage : pipeline.stages.values()) {
+            if (stage.worker != null)
+                stage.worker.start();
+        }
+        return pipeline;
+    }
+
+    public NodeGraph getGraph() {
+        return graph;
+    }
+
+    public boolean isRunning() {
+        return running;
+    }
+
+    /** @return Whatever was thrown by the first node that failed, or null if none have. A failing node stops the whole
+     *         pipeline. */
+    public Throwable getFailure() {
+        return failure;
+    }
+
+    /** Called after elements have been pushed to, or popped from, the given connection. */
+    void onChange(GraphConnection<?> conn, boolean popped) {
+        if (popped) {
+            // Popping gives the producer more credit
+            if (conn.connectedOutput != null)
+                wake(conn.connectedOutput.getNode());
+        } else if (!conn.isOutput()) {
+            wake(conn.getNode());
+        }
+    }
+
+    private void wake(INode node) {
+        Stage stage = stages.get(node);
+        if (stage != null && stage.parked) {
+            Thread thread = stage.thread;
+            if (thread != null)
+                LockSupport.unpark(thread);
+        }
+    }
+
+    /** Blocks the current thread until every input of the given node has an element in it.
+     *
+     * @throws IllegalStateException if an input is not connected, the pipeline stopped or the thread was interrupted. */
+    void awaitInputs(INode node) {
+        Stage stage = stages.get(node);
+        if (stage == null || stage.worker != null)
+            throw new IllegalStateException(node.getName() + " is computed by the pipeline, it can't be waited on!");
+        for (GraphConnection<?> in : node.getInputs().values()) {
+            if (in.connectedOutput == null)
+                throw new IllegalStateException("The input " + in.getName() + " of " + node.getName() + " is not connected!");
+        }
+        stage.thread = Thread.currentThread();
+        try {
+            while (!hasInputs(node)) {
+                if (failure != null)
+                    throw new IllegalStateException("A node failed while streaming!", failure);
+                if (!running)
+                    throw new IllegalStateException("The pipeline has been closed!");
+                stage.parked = true;
+                // Check again after announcing the park, otherwise an element pushed in between would be missed
+                if (running && !hasInputs(node))
+                    LockSupport.park(this);
+                stage.parked = false;
+                if (Thread.currentThread().isInterrupted())
+                    throw new IllegalStateException("Interrupted while waiting for " + node.getName());
+            }
+        } finally {
+            stage.thread = null;
+        }
+    }
+
+    private static boolean hasInputs(INode node) {
+        for (GraphConnection<?> in : node.getInputs().values()) {
+            if (in.getRemainingElements() <= 0)
+                return false;
+        }
+        return true;
+    }
+
+    private void fail(Throwable t) {
+        if (failure == null)
+            failure = t;
+        running = false;
+        for (Stage stage : stages.values()) {
+            Thread thread = stage.thread;
+            if (thread != null)
+                LockSupport.unpark(thread);
+        }
+    }
+
+    /** Stops every node, waits for their threads to finish and puts the graph back into its normal mode. */
+    @Override
+    public void close() {
+        running = false;
+        boolean interrupted = false;
+        for (Stage stage : stages.values()) {
+            Thread thread = stage.thread;
+            if (thread != null)
+                LockSupport.unpark(thread);
+            if (stage.worker == null)
+                continue;
+            LockSupport.unpark(stage.worker);
+            while (true) {
+                try {
+                    stage.worker.join();
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        }
+        if (graph.pipeline == this) {
+            for (Map.Entry<GraphConnection<?>, ConnectionBuffer> entry : replaced.entrySet()) {
+                entry.getKey().buffer = entry.getValue();
+            }
+            graph.pipeline = null;
+        }
+        if (interrupted)
+            Thread.currentThread().interrupt();
+    }
+
+    private static final class Stage {
+        final INode node;
+        /** The thread that computes this node, or null if it is driven by the caller. */
+        Thread worker;
+        /** The thread to unpark when this node's connections change. */
+        volatile Thread thread;
+        /** Set before the thread makes its last check and parks. The connection counts and this are both volatile, so
+         * either the parking thread sees the change or the changing thread sees this and unparks it. */
+        volatile boolean parked;
+
+        Stage(INode node) {
+            this.node = node;
+        }
+    }
+
+    private final class Worker implements Runnable {
+        private final Stage stage;
+
+        Worker(Stage stage) {
+            this.stage = stage;
+        }
+
+        @Override
+        public void run() {
+            INode node = stage.node;
+            try {
+                while (running) {
+                    if (node.computeIfCan())
+                        continue;
+                    stage.parked = true;
+                    // Check again after announcing the park, otherwise an element pushed in between would be missed
+                    if (running && !node.computeIfCan())
+                        LockSupport.park(StreamingPipeline.this);
+                    stage.parked = false;
+                }
+            } catch (Throwable t) {
+                fail(t);
+            }
+        }
+
+        @Override
+        public String toString() {
+            return "Streaming " + stage.node.getName();
+        }
+    }
+}
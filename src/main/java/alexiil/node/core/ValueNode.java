@@ -3,6 +3,8 @@
  * See the file "LICENSE" for copying permission. */
 package alexiil.node.core;
 
+import java.util.Collections;
+import java.util.Map;
 import java.util.function.Consumer;
 
 import alexiil.node.core.NodeGraph.GraphConnection;
@@ -12,8 +14,9 @@ import alexiil.node.core.NodeGraph.GraphConnection;
  * @author AlexIIL
  *
  * @param <N> The type of value to supply */
-public abstract class ValueNode<N> extends AbstractNode implements INodeFactory<N>, INodeAdditionalData {
-    protected final N value;
+public abstract class ValueNode<N> extends AbstractNode implements INodeFactory<N>, INodeAdditionalData,
+        INodeFoldable {
+    protected N value;
     private final Consumer<N> out;
     private final Class<N> clazz;
     private final GraphConnection<N> connection;
@@ -35,6 +38,22 @@ public abstract class ValueNode<N> extends AbstractNode implements INodeFactory<
         name = "Value " + value.toString();
     }
 
+    /** @return The value this pushes out. */
+    public N getValue() {
+        return value;
+    }
+
+    /** Changes the value this pushes out from now on. If the graph is {@link NodeGraph#setIncremental(boolean)
+     * incremental} this marks everything downstream of this node as needing to be computed again. */
+    public void setValue(N value) {
+        if (value == null)
+            throw new NullPointerException("value");
+        this.value = value;
+        NodeGraph graph = getGraph();
+        if (graph != null)
+            graph.valueChanged(this);
+    }
+
     @Override
     public String[] addtionalData() {
         return new String[] { value.toString() };
@@ -45,9 +64,13 @@ public abstract class ValueNode<N> extends AbstractNode implements INodeFactory<
         return new String[] { "value" };
     }
 
+    @Override
+    public Map<String, Object> fold(Map<String, Object> inputs) {
+        return Collections.singletonMap("val", value);
+    }
+
     @Override
     protected boolean computeNext() {
-        System.out.println("Computing " + connection.getRequestedElements() + " values");
         boolean ret = connection.getRequestedElements() > 0;
         while (connection.getRequestedElements() > 0) {
             out.accept(value);
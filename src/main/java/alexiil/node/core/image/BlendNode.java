@@ -0,0 +1,106 @@
+/* Copyright (c) 2015 AlexIIL
+ *
+ * See the file "LICENSE" for copying permission. */
+package alexiil.node.core.image;
+
+import java.util.function.Consumer;
+
+import com.google.common.base.Supplier;
+
+import alexiil.node.core.AbstractNode;
+import alexiil.node.core.NodeGraph;
+import alexiil.node.core.NodeRegistry;
+
+/** Takes 2 images of the same size and combines each pair of pixels with a {@link BlendMode}.
+ *
+ * @author AlexIIL */
+public class BlendNode extends AbstractNode {
+    private final BlendMode mode;
+    private final Supplier<TiledImage> inA, inB;
+    private final Consumer<TiledImage> out;
+
+    public BlendNode(NodeRegistry registry, String typeTag, BlendMode mode) {
+        super(registry, typeTag);
+        this.mode = mode;
+        inA = inB = null;
+        out = null;
+    }
+
+    public BlendNode(NodeRegistry registry, String typeTag, NodeGraph graph, BlendMode mode, String name) {
+        super(registry, typeTag, graph, name);
+        this.mode = mode;
+        addInput("a", TiledImage.class);
+        addInput("b", TiledImage.class);
+        addOutput("img", TiledImage.class);
+        inA = getInputSupplier("a");
+        inB = getInputSupplier("b");
+        out = getOutputConsumer("img");
+    }
+
+    @Override
+    protected boolean computeNext() {
+        TiledImage a = inA.get(), b = inB.get();
+        if (!a.isSameSize(b))
+            throw new IllegalStateException("Cannot blend " + a + " with " + b + " in " + getName());
+        TiledImage dst = a.createCompatible();
+        int[] pixelsA = a.pixels, pixelsB = b.pixels, pixels = dst.pixels;
+        a.forEachTile((minX, minY, maxX, maxY) -> {
+            for (int y = minY; y < maxY; y++) {
+                int row = y * a.width;
+                for (int i = row + minX; i < row + maxX; i++) {
+                    pixels[i] = mode.blend(pixelsA[i], pixelsB[i]);
+                }
+            }
+        });
+        out.accept(dst);
+        return true;
+    }
+
+    @Override
+    public AbstractNode createCopy(NodeGraph graph, String name) {
+        return new BlendNode(getRegistry(), getTypeTag(), graph, mode, name);
+    }
+
+    public enum BlendMode {
+        /** Adds each channel, clamping at 255. */
+        ADD {
+            @Override
+            public int blend(int a, int b) {
+                int out = 0;
+                for (int shift = 0; shift < 32; shift += 8) {
+                    int sum = ((a >>> shift) & 0xFF) + ((b >>> shift) & 0xFF);
+                    out |= Math.min(255, sum) << shift;
+                }
+                return out;
+            }
+        },
+        /** Multiplies each channel, as if they were between 0 and 1. */
+        MULTIPLY {
+            @Override
+            public int blend(int a, int b) {
+                int out = 0;
+                for (int shift = 0; shift < 32; shift += 8) {
+                    int product = ((a >>> shift) & 0xFF) * ((b >>> shift) & 0xFF);
+                    out |= ((product + 127) / 255) << shift;
+                }
+                return out;
+            }
+        },
+        /** Draws a over b, using the alpha channel of a. The result keeps the alpha channel of b. */
+        OVER {
+            @Override
+            public int blend(int a, int b) {
+                int alpha = a >>> 24;
+                int out = b & 0xFF_00_00_00;
+                for (int shift = 0; shift < 24; shift += 8) {
+                    int ca = (a >>> shift) & 0xFF, cb = (b >>> shift) & 0xFF;
+                    out |= ((ca * alpha + cb * (255 - alpha) + 127) / 255) << shift;
+                }
+                return out;
+            }
+        };
+
+        /** @return The ARGB colour of the combined pixel. */
+        public abstract int blend(int a, int b);
+    }
+}
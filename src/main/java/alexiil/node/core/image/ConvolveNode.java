@@ -0,0 +1,67 @@
+/* Copyright (c) 2015 AlexIIL
+ *
+ * See the file "LICENSE" for copying permission. */
+package alexiil.node.core.image;
+
+import java.awt.image.Kernel;
+
+import alexiil.node.core.AbstractNode;
+import alexiil.node.core.NodeGraph;
+import alexiil.node.core.NodeRegistry;
+
+/** Convolves the red, green and blue channels of an image with a {@link Kernel}, keeping the alpha channel as it is.
+ * Pixels outside of the image are treated as copies of the nearest edge pixel. Tiles read the pixels around them
+ * straight from the input image, so they don't need to be copied with a border first.
+ *
+ * @author AlexIIL */
+public class ConvolveNode extends ImageFilterNode {
+    private final Kernel kernel;
+    private final float[] weights;
+
+    public ConvolveNode(NodeRegistry registry, String typeTag, Kernel kernel) {
+        super(registry, typeTag);
+        this.kernel = kernel;
+        weights = kernel.getKernelData(null);
+    }
+
+    public ConvolveNode(NodeRegistry registry, String typeTag, NodeGraph graph, Kernel kernel, String name) {
+        super(registry, typeTag, graph, name);
+        this.kernel = kernel;
+        weights = kernel.getKernelData(null);
+    }
+
+    @Override
+    protected void filter(TiledImage src, TiledImage dst, int minX, int minY, int maxX, int maxY) {
+        int[] in = src.pixels, out = dst.pixels;
+        int width = src.width, height = src.height;
+        int kernelWidth = kernel.getWidth(), kernelHeight = kernel.getHeight();
+        int originX = kernel.getXOrigin(), originY = kernel.getYOrigin();
+        for (int y = minY; y < maxY; y++) {
+            for (int x = minX; x < maxX; x++) {
+                float r = 0, g = 0, b = 0;
+                int k = 0;
+                for (int ky = 0; ky < kernelHeight; ky++) {
+                    int row = Math.min(height - 1, Math.max(0, y + ky - originY)) * width;
+                    for (int kx = 0; kx < kernelWidth; kx++) {
+                        float weight = weights[k++];
+                        int argb = in[row + Math.min(width - 1, Math.max(0, x + kx - originX))];
+                        r += weight * ((argb >> 16) & 0xFF);
+                        g += weight * ((argb >> 8) & 0xFF);
+                        b += weight * (argb & 0xFF);
+                    }
+                }
+                int i = y * width + x;
+                out[i] = (in[i] & 0xFF_00_00_00) | (clamp(r) << 16) | (clamp(g) << 8) | clamp(b);
+            }
+        }
+    }
+
+    private static int clamp(float channel) {
+        return Math.min(255, Math.max(0, Math.round(channel)));
+    }
+
+    @Override
+    public AbstractNode createCopy(NodeGraph graph, String name) {
+        return new ConvolveNode(getRegistry(), getTypeTag(), graph, kernel, name);
+    }
+}
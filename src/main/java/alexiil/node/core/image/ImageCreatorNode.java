@@ -3,36 +3,65 @@
  * See the file "LICENSE" for copying permission. */
 package alexiil.node.core.image;
 
+import java.util.Arrays;
+import java.util.function.Consumer;
+
+import com.google.common.base.Supplier;
+
 import alexiil.node.core.AbstractNode;
 import alexiil.node.core.NodeGraph;
 import alexiil.node.core.NodeRegistry;
 
-/** Created on 28 Dec 2015
+/** Creates a new image of the given size, filled with a single ARGB colour.
+ * 
+ * Created on 28 Dec 2015
  *
  * @author AlexIIL */
 public class ImageCreatorNode extends AbstractNode {
-
-    // private final Iterator<Long> sizeX;
-    // private final Iterator<Long> sizeY;
-    // private final Consumer<BufferedImage> img;
+    private final Supplier<Long> sizeX;
+    private final Supplier<Long> sizeY;
+    private final Supplier<Long> colour;
+    private final Consumer<TiledImage> img;
 
     public ImageCreatorNode(NodeRegistry registry, String typeTag, NodeGraph graph, String name) {
         super(registry, typeTag, graph, name);
-        // TODO Auto-generated constructor stub
+        addInput("sizeX", Long.class);
+        addInput("sizeY", Long.class);
+        addInput("colour", Long.class);
+        addOutput("img", TiledImage.class);
+        sizeX = getInputSupplier("sizeX");
+        sizeY = getInputSupplier("sizeY");
+        colour = getInputSupplier("colour");
+        img = getOutputConsumer("img");
     }
 
     public ImageCreatorNode(NodeRegistry registry, String typeTag) {
         super(registry, typeTag);
-        // TODO Auto-generated constructor stub
+        sizeX = sizeY = colour = null;
+        img = null;
     }
 
     @Override
     protected boolean computeNext() {
-        return false;
+        long width = sizeX.get(), height = sizeY.get();
+        int argb = (int) (long) colour.get();
+        if (width > Integer.MAX_VALUE || height > Integer.MAX_VALUE)
+            throw new IllegalArgumentException("Invalid size " + width + " x " + height);
+        TiledImage image = new TiledImage((int) width, (int) height);
+        if (argb != 0) {
+            int[] pixels = image.pixels;
+            image.forEachTile((minX, minY, maxX, maxY) -> {
+                for (int y = minY; y < maxY; y++) {
+                    Arrays.fill(pixels, y * image.width + minX, y * image.width + maxX, argb);
+                }
+            });
+        }
+        img.accept(image);
+        return true;
     }
 
     @Override
     public ImageCreatorNode createCopy(NodeGraph graph, String name) {
-        return null;
+        return new ImageCreatorNode(getRegistry(), getTypeTag(), graph, name);
     }
 }
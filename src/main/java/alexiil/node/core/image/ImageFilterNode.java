@@ -0,0 +1,46 @@
+/* Copyright (c) 2015 AlexIIL
+ *
+ * See the file "LICENSE" for copying permission. */
+package alexiil.node.core.image;
+
+import java.util.function.Consumer;
+
+import com.google.common.base.Supplier;
+
+import alexiil.node.core.AbstractNode;
+import alexiil.node.core.NodeGraph;
+import alexiil.node.core.NodeRegistry;
+
+/** Takes 1 image and produces a new one of the same size, one tile at a time. The input image is only ever read from.
+ *
+ * @author AlexIIL */
+public abstract class ImageFilterNode extends AbstractNode {
+    private final Supplier<TiledImage> in;
+    private final Consumer<TiledImage> out;
+
+    public ImageFilterNode(NodeRegistry registry, String typeTag) {
+        super(registry, typeTag);
+        in = null;
+        out = null;
+    }
+
+    public ImageFilterNode(NodeRegistry registry, String typeTag, NodeGraph graph, String name) {
+        super(registry, typeTag, graph, name);
+        addInput("img", TiledImage.class);
+        addOutput("img", TiledImage.class);
+        in = getInputSupplier("img");
+        out = getOutputConsumer("img");
+    }
+
+    @Override
+    protected boolean computeNext() {
+        TiledImage src = in.get();
+        TiledImage dst = src.createCompatible();
+        src.forEachTile((minX, minY, maxX, maxY) -> filter(src, dst, minX, minY, maxX, maxY));
+        out.accept(dst);
+        return true;
+    }
+
+    /** Writes every pixel of dst inside the given tile. This is called for different tiles at the same time. */
+    protected abstract void filter(TiledImage src, TiledImage dst, int minX, int minY, int maxX, int maxY);
+}
@@ -3,6 +3,53 @@
  * See the file "LICENSE" for copying permission. */
 package alexiil.node.core.image;
 
+import java.awt.image.Kernel;
+
+import alexiil.node.core.InputNode;
+import alexiil.node.core.NodeRegistry;
+import alexiil.node.core.ReturnNode;
+import alexiil.node.core.image.BlendNode.BlendMode;
+import alexiil.node.core.image.PixelNode.PixelOperations;
+
+/** Stores all image nodes: input, creation, per-pixel math, blending, convolution and returning. Every image is a
+ * {@link TiledImage}, and every node processes its tiles in parallel.
+ *
+ * @author AlexIIL */
 public class ImageNodes {
+    public static final NodeRegistry imageRegistry = new NodeRegistry("image");
+
+    public static final ImageCreatorNode imageCreator;
+    public static final InputNode<TiledImage> imageInput;
+    public static final ReturnNode<TiledImage> imageReturner;
+    public static final PixelNode imageInverter;
+    public static final PixelNode imageGreyscaler;
+    public static final BlendNode imageAdder;
+    public static final BlendNode imageMultiplier;
+    public static final BlendNode imageOverlayer;
+    public static final ConvolveNode imageBlurrer;
+    public static final ConvolveNode imageSharpener;
+    public static final ConvolveNode imageEdgeDetector;
+
+    static {
+        imageRegistry.registerNodeType(imageCreator = new ImageCreatorNode(imageRegistry, "ImageCreate"));
+        imageRegistry.registerNodeType(imageInput = new InputNode<>(imageRegistry, "ImageInput", TiledImage.class));
+        imageRegistry.registerNodeType(imageReturner = new ReturnNode<>(imageRegistry, "ImageReturn", TiledImage.class));
+
+        imageRegistry.registerNodeType(imageInverter = new PixelNode(imageRegistry, "ImageInvert", PixelOperations.INVERT));
+        imageRegistry.registerNodeType(imageGreyscaler = new PixelNode(imageRegistry, "ImageGreyscale", PixelOperations.GREYSCALE));
+
+        imageRegistry.registerNodeType(imageAdder = new BlendNode(imageRegistry, "ImageAdd", BlendMode.ADD));
+        imageRegistry.registerNodeType(imageMultiplier = new BlendNode(imageRegistry, "ImageMultiply", BlendMode.MULTIPLY));
+        imageRegistry.registerNodeType(imageOverlayer = new BlendNode(imageRegistry, "ImageOver", BlendMode.OVER));
+
+        float ninth = 1 / 9f;
+        Kernel blur = new Kernel(3, 3, new float[] { ninth, ninth, ninth, ninth, ninth, ninth, ninth, ninth, ninth });
+        Kernel sharpen = new Kernel(3, 3, new float[] { 0, -1, 0, -1, 5, -1, 0, -1, 0 });
+        Kernel edges = new Kernel(3, 3, new float[] { -1, -1, -1, -1, 8, -1, -1, -1, -1 });
+        imageRegistry.registerNodeType(imageBlurrer = new ConvolveNode(imageRegistry, "ImageBlur", blur));
+        imageRegistry.registerNodeType(imageSharpener = new ConvolveNode(imageRegistry, "ImageSharpen", sharpen));
+        imageRegistry.registerNodeType(imageEdgeDetector = new ConvolveNode(imageRegistry, "ImageEdges", edges));
 
+        imageRegistry.setImmutable();
+    }
 }
@@ -0,0 +1,65 @@
+/* Copyright (c) 2015 AlexIIL
+ *
+ * See the file "LICENSE" for copying permission. */
+package alexiil.node.core.image;
+
+import alexiil.node.core.AbstractNode;
+import alexiil.node.core.NodeGraph;
+import alexiil.node.core.NodeRegistry;
+
+/** Applies a {@link PixelOperation} to every pixel of an image on its own.
+ *
+ * @author AlexIIL */
+public class PixelNode extends ImageFilterNode {
+    private final PixelOperation operation;
+
+    public PixelNode(NodeRegistry registry, String typeTag, PixelOperation operation) {
+        super(registry, typeTag);
+        this.operation = operation;
+    }
+
+    public PixelNode(NodeRegistry registry, String typeTag, NodeGraph graph, PixelOperation operation, String name) {
+        super(registry, typeTag, graph, name);
+        this.operation = operation;
+    }
+
+    @Override
+    protected void filter(TiledImage src, TiledImage dst, int minX, int minY, int maxX, int maxY) {
+        int[] in = src.pixels, out = dst.pixels;
+        for (int y = minY; y < maxY; y++) {
+            int row = y * src.width;
+            for (int i = row + minX; i < row + maxX; i++) {
+                out[i] = operation.apply(in[i]);
+            }
+        }
+    }
+
+    @Override
+    public AbstractNode createCopy(NodeGraph graph, String name) {
+        return new PixelNode(getRegistry(), getTypeTag(), graph, operation, name);
+    }
+
+    public interface PixelOperation {
+        /** @return The new ARGB colour for a pixel that was the given ARGB colour. */
+        int apply(int argb);
+    }
+
+    public enum PixelOperations implements PixelOperation {
+        /** Inverts the red, green and blue channels, keeping the alpha channel as it is. */
+        INVERT {
+            @Override
+            public int apply(int argb) {
+                return argb ^ 0x00_FF_FF_FF;
+            }
+        },
+        /** Replaces the red, green and blue channels with the (Rec. 601) luma of the colour. */
+        GREYSCALE {
+            @Override
+            public int apply(int argb) {
+                int r = (argb >> 16) & 0xFF, g = (argb >> 8) & 0xFF, b = argb & 0xFF;
+                int luma = (r * 299 + g * 587 + b * 114 + 500) / 1000;
+                return (argb & 0xFF_00_00_00) | (luma << 16) | (luma << 8) | luma;
+            }
+        };
+    }
+}
@@ -0,0 +1,138 @@
+/* Copyright (c) 2015 AlexIIL
+ *
+ * See the file "LICENSE" for copying permission. */
+package alexiil.node.core.image;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferInt;
+import java.awt.image.Raster;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.awt.image.WritableRaster;
+import java.util.stream.IntStream;
+
+/** An ARGB image stored as a single int[] plane (one int per pixel, row by row), split up into square tiles that are
+ * processed in parallel. This is what flows between image nodes: nodes read the planes of their inputs directly (so an
+ * image is never copied on the way into a node) and only ever write to the new image that they output.
+ *
+ * Tiles are processed on the common {@link java.util.concurrent.ForkJoinPool}, or on whichever pool the graph is being
+ * evaluated in if it is being evaluated by one.
+ *
+ * @author AlexIIL */
+public final class TiledImage {
+    public static final int DEFAULT_TILE_SIZE = 256;
+    private static final int[] ARGB_MASKS = { 0xFF_00_00, 0xFF_00, 0xFF, 0xFF_00_00_00 };
+
+    public final int width, height, tileSize;
+    final int[] pixels;
+    private final int tilesX, tilesY;
+
+    /** Operates on a single tile. Tiles never overlap, so this can write to any pixel inside the given bounds of an
+     * image without affecting any other tile. */
+    public interface TileOperation {
+        /** @param minX The first column of the tile.
+         * @param minY The first row of the tile.
+         * @param maxX One past the last column of the tile.
+         * @param maxY One past the last row of the tile. */
+        void apply(int minX, int minY, int maxX, int maxY);
+    }
+
+    /** Creates a new, fully transparent, image. */
+    public TiledImage(int width, int height) {
+        this(width, height, DEFAULT_TILE_SIZE);
+    }
+
+    /** Creates a new, fully transparent, image. */
+    public TiledImage(int width, int height, int tileSize) {
+        this(width, height, tileSize, new int[checkSize(width, height)]);
+    }
+
+    private TiledImage(int width, int height, int tileSize, int[] pixels) {
+        if (tileSize <= 0)
+            throw new IllegalArgumentException("The tile size must be positive, but was " + tileSize);
+        this.width = width;
+        this.height = height;
+        this.tileSize = tileSize;
+        this.pixels = pixels;
+        tilesX = (width + tileSize - 1) / tileSize;
+        tilesY = (height + tileSize - 1) / tileSize;
+    }
+
+    private static int checkSize(int width, int height) {
+        if (width <= 0 || height <= 0 || (long) width * height > Integer.MAX_VALUE)
+            throw new IllegalArgumentException("Invalid size " + width + " x " + height);
+        return width * height;
+    }
+
+    /** @return An image that uses the same pixels as the given one if it is a plain {@link BufferedImage#TYPE_INT_ARGB}
+     *         image (so changing either changes both), or a copy of its pixels if it isn't. */
+    public static TiledImage wrap(BufferedImage image) {
+        int width = image.getWidth(), height = image.getHeight();
+        WritableRaster raster = image.getRaster();
+        DataBuffer buffer = raster.getDataBuffer();
+        boolean argb = image.getType() == BufferedImage.TYPE_INT_ARGB && raster.getParent() == null;
+        if (argb && buffer instanceof DataBufferInt && buffer.getNumBanks() == 1 && buffer.getOffset() == 0) {
+            // Only share the pixels if they are laid out exactly like ours: one int per pixel with no gaps
+            int stride = ((SinglePixelPackedSampleModel) raster.getSampleModel()).getScanlineStride();
+            int[] data = ((DataBufferInt) buffer).getData();
+            if (stride == width && data.length == checkSize(width, height))
+                return new TiledImage(width, height, DEFAULT_TILE_SIZE, data);
+        }
+        int[] pixels = new int[checkSize(width, height)];
+        image.getRGB(0, 0, width, height, pixels, 0, width);
+        return new TiledImage(width, height, DEFAULT_TILE_SIZE, pixels);
+    }
+
+    /** @return A {@link BufferedImage#TYPE_INT_ARGB} image that uses the same pixels as this, without copying them. */
+    public BufferedImage toBufferedImage() {
+        DataBufferInt buffer = new DataBufferInt(pixels, pixels.length);
+        WritableRaster raster = Raster.createPackedRaster(buffer, width, height, width, ARGB_MASKS, null);
+        return new BufferedImage(ColorModel.getRGBdefault(), raster, false, null);
+    }
+
+    /** @return A new, fully transparent, image with the same size and tile size as this. */
+    public TiledImage createCompatible() {
+        return new TiledImage(width, height, tileSize);
+    }
+
+    /** @return The ARGB colour of the given pixel. */
+    public int getPixel(int x, int y) {
+        if (x < 0 || y < 0 || x >= width || y >= height)
+            throw new IndexOutOfBoundsException(x + ", " + y + " is outside of " + width + " x " + height);
+        return pixels[y * width + x];
+    }
+
+    /** @return The pixels of this image, as ARGB ints, row by row. This is not a copy, so it must not be changed unless
+     *         nothing else can see this image yet. */
+    public int[] getPixels() {
+        return pixels;
+    }
+
+    public boolean isSameSize(TiledImage other) {
+        return width == other.width && height == other.height;
+    }
+
+    public int getTileCount() {
+        return tilesX * tilesY;
+    }
+
+    /** Calls the given operation once for every tile, in parallel. This returns once every tile has been done. */
+    public void forEachTile(TileOperation operation) {
+        int count = getTileCount();
+        if (count == 1) {
+            operation.apply(0, 0, width, height);
+            return;
+        }
+        IntStream.range(0, count).parallel().forEach(tile -> {
+            int minX = (tile % tilesX) * tileSize;
+            int minY = (tile / tilesX) * tileSize;
+            operation.apply(minX, minY, Math.min(width, minX + tileSize), Math.min(height, minY + tileSize));
+        });
+    }
+
+    @Override
+    public String toString() {
+        return "TiledImage [" + width + " x " + height + ", " + getTileCount() + " tiles]";
+    }
+}
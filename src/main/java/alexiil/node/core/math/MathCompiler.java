@@ -0,0 +1,341 @@
+/* Copyright (c) 2015 AlexIIL
+ *
+ * See the file "LICENSE" for copying permission. */
+package alexiil.node.core.math;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.DoubleSupplier;
+import java.util.function.LongSupplier;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.primitives.Ints;
+
+import alexiil.node.core.ExecutionPlan;
+import alexiil.node.core.INode;
+import alexiil.node.core.NodeGraph.GraphConnection;
+import alexiil.node.core.ReturnNode;
+import alexiil.node.core.ValueNode;
+import alexiil.node.core.math.MathNodes.DoubleOperation;
+import alexiil.node.core.math.MathNodes.LongOperation;
+import alexiil.node.core.math.SimpleMathNode.DoubleNode;
+import alexiil.node.core.math.SimpleMathNode.LongNode;
+
+/** Compiles everything that feeds a {@link ReturnNode} into a single generated class, which works out the same value
+ * as {@link ReturnNode#get()} using straight line primitive code: no nodes, connections or boxing at all. Every
+ * intermediate value is a local variable, so shared nodes are still only computed once.
+ *
+ * Only value nodes and the built in {@link LongNode}s and {@link DoubleNode}s from {@link MathNodes} can be compiled.
+ * For anything else the returned supplier just calls {@link ReturnNode#get()}, so callers never need to check.
+ *
+ * The compiled supplier is a snapshot: changing the graph afterwards does not change what it returns.
+ *
+ * @author AlexIIL */
+public final class MathCompiler {
+    private static final AtomicInteger compiledCount = new AtomicInteger();
+
+    private MathCompiler() {}
+
+    /** @return A supplier for the values of the given return node, compiled if possible. */
+    public static LongSupplier compileLong(ReturnNode<Long> returnNode) {
+        Object compiled = compile(returnNode, false);
+        return compiled != null ? (LongSupplier) compiled : returnNode::get;
+    }
+
+    /** @return A supplier for the values of the given return node, compiled if possible. */
+    public static DoubleSupplier compileDouble(ReturnNode<Double> returnNode) {
+        Object compiled = compile(returnNode, true);
+        return compiled != null ? (DoubleSupplier) compiled : returnNode::get;
+    }
+
+    /** @return True if {@link #compileLong(ReturnNode)} or {@link #compileDouble(ReturnNode)} would give a compiled
+     *         supplier, rather than one that evaluates the graph. */
+    public static boolean canCompile(ReturnNode<?> returnNode) {
+        Class<?> type = returnNode.getInputs().get("val").getTypeClass();
+        return (type == Long.class || type == Double.class) && generate(returnNode, type == Double.class, "Test") != null;
+    }
+
+    private static Object compile(ReturnNode<?> returnNode, boolean isDouble) {
+        String name = MathCompiler.class.getName() + "$Compiled" + compiledCount.incrementAndGet();
+        byte[] bytes = generate(returnNode, isDouble, name.replace('.', '/'));
+        if (bytes == null)
+            return null;
+        try {
+            return new Loader().define(name, bytes).getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException | LinkageError e) {
+            throw new IllegalStateException("Generated an invalid class for " + returnNode.getName(), e);
+        }
+    }
+
+    // Bytecode generation
+
+    private static final int ALOAD_0 = 0x2a, LDC2_W = 0x14, LLOAD = 0x16, DLOAD = 0x18, LSTORE = 0x37, DSTORE = 0x39;
+    private static final int LADD = 0x61, DADD = 0x63, LSUB = 0x65, DSUB = 0x67, LMUL = 0x69, DMUL = 0x6b;
+    private static final int LDIV = 0x6d, DDIV = 0x6f, LRETURN = 0xad, DRETURN = 0xaf, RETURN = 0xb1;
+    private static final int INVOKESPECIAL = 0xb7, INVOKESTATIC = 0xb8, WIDE = 0xc4;
+
+    /** @return The class file, or null if anything it depends on cannot be compiled. */
+    private static byte[] generate(ReturnNode<?> returnNode, boolean isDouble, String className) {
+        ExecutionPlan plan = returnNode.getGraph().compile();
+        int target = plan.indexOf(returnNode);
+        GraphConnection<?> in = returnNode.getInputs().get("val");
+        if (target < 0 || in.getConnectedOutput() == null)
+            return null;
+
+        ClassFile file = new ClassFile(className, isDouble ? "java/util/function/DoubleSupplier"
+            : "java/util/function/LongSupplier");
+        Code code = new Code();
+        // Positive for a local variable slot, negative for a constant pool index
+        Map<INode, Integer> operands = Maps.newIdentityHashMap();
+        int nextLocal = 1;
+
+        int[] schedule = plan.getSchedule(target);
+        for (int i = 0; i < schedule.length - 1; i++) {
+            INode node = plan.getNode(schedule[i]);
+            if (node instanceof ValueNode) {
+                Object value = ((ValueNode<?>) node).getValue();
+                if (value instanceof Long)
+                    operands.put(node, -file.constantLong((Long) value));
+                else if (value instanceof Double)
+                    operands.put(node, -file.constantDouble((Double) value));
+                else
+                    return null;
+                continue;
+            }
+            int op;
+            boolean opIsDouble;
+            if (node instanceof LongNode && ((LongNode) node).getApplier() instanceof LongOperation) {
+                opIsDouble = false;
+                op = longOpcode((LongOperation) ((LongNode) node).getApplier());
+            } else if (node instanceof DoubleNode && ((DoubleNode) node).getApplier() instanceof DoubleOperation) {
+                opIsDouble = true;
+                DoubleOperation operation = (DoubleOperation) ((DoubleNode) node).getApplier();
+                op = operation == DoubleOperation.POWER ? -file.methodRef("java/lang/Math", "pow", "(DD)D")
+                    : doubleOpcode(operation);
+            } else {
+                return null;
+            }
+            if (!load(code, operands, node.getInputs().get("a"), opIsDouble)
+                || !load(code, operands, node.getInputs().get("b"), opIsDouble))
+                return null;
+            if (op < 0) {
+                code.op(INVOKESTATIC).u2(-op);
+            } else {
+                code.op(op);
+            }
+            code.local(opIsDouble ? DSTORE : LSTORE, nextLocal);
+            operands.put(node, nextLocal);
+            nextLocal += 2;
+        }
+        if (!load(code, operands, in, isDouble))
+            return null;
+        code.op(isDouble ? DRETURN : LRETURN);
+
+        if (code.size() > 0xFFFF || nextLocal > 0xFFFF)
+            // Too big for a single method
+            return null;
+        return file.toBytes(isDouble ? "getAsDouble" : "getAsLong", isDouble ? "()D" : "()J", nextLocal, code);
+    }
+
+    private static boolean load(Code code, Map<INode, Integer> operands, GraphConnection<?> in, boolean isDouble) {
+        if (in == null || in.getConnectedOutput() == null)
+            return false;
+        Integer operand = operands.get(in.getConnectedOutput().getNode());
+        if (operand == null)
+            return false;
+        if (operand < 0)
+            code.op(LDC2_W).u2(-operand);
+        else
+            code.local(isDouble ? DLOAD : LLOAD, operand);
+        return true;
+    }
+
+    private static int longOpcode(LongOperation operation) {
+        switch (operation) {
+            case ADD:
+                return LADD;
+            case SUBTRACT:
+                return LSUB;
+            case MULTIPLY:
+                return LMUL;
+            case DIVIDE:
+                return LDIV;
+            default:
+                throw new IllegalArgumentException("Unknown operation " + operation);
+        }
+    }
+
+    private static int doubleOpcode(DoubleOperation operation) {
+        switch (operation) {
+            case ADD:
+                return DADD;
+            case SUBTRACT:
+                return DSUB;
+            case MULTIPLY:
+                return DMUL;
+            case DIVIDE:
+                return DDIV;
+            default:
+                throw new IllegalArgumentException("Unknown operation " + operation);
+        }
+    }
+
+    /** The body of a method. Nothing branches, so no stack map frames are needed. */
+    private static final class Code {
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+        Code op(int op) {
+            bytes.write(op);
+            return this;
+        }
+
+        Code u2(int value) {
+            bytes.write(value >>> 8);
+            bytes.write(value);
+            return this;
+        }
+
+        void local(int op, int slot) {
+            if (slot > 0xFF)
+                op(WIDE).op(op).u2(slot);
+            else
+                op(op).op(slot);
+        }
+
+        int size() {
+            return bytes.size();
+        }
+    }
+
+    /** A class file for a public final class with a public no-args constructor and a single public method. */
+    private static final class ClassFile {
+        private final ByteArrayOutputStream pool = new ByteArrayOutputStream();
+        private final DataOutputStream poolOut = new DataOutputStream(pool);
+        private final Map<List<Object>, Integer> poolIndices = Maps.newHashMap();
+        private int poolCount = 1;
+        private final int thisClass, superClass, interfaceClass;
+
+        ClassFile(String name, String interfaceName) {
+            thisClass = classRef(name);
+            superClass = classRef("java/lang/Object");
+            interfaceClass = classRef(interfaceName);
+        }
+
+        /** @param value A String (for utf8), a Long (for longs and the bits of doubles) or the indices of other
+         *            constants.
+         * @param size The number of pool entries this takes up: 2 for longs and doubles, otherwise 1. */
+        private int constant(int tag, Object value, int size) {
+            List<Object> key = Lists.newArrayList(tag, value instanceof int[] ? Ints.asList((int[]) value) : value);
+            Integer index = poolIndices.get(key);
+            if (index != null)
+                return index;
+            try {
+                poolOut.writeByte(tag);
+                if (value instanceof String) {
+                    poolOut.writeUTF((String) value);
+                } else if (value instanceof Long) {
+                    poolOut.writeLong((Long) value);
+                } else {
+                    for (int part : (int[]) value) {
+                        poolOut.writeShort(part);
+                    }
+                }
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+            index = poolCount;
+            poolCount += size;
+            poolIndices.put(key, index);
+            return index;
+        }
+
+        int utf8(String value) {
+            return constant(1, value, 1);
+        }
+
+        int classRef(String name) {
+            return constant(7, new int[] { utf8(name) }, 1);
+        }
+
+        int constantLong(long value) {
+            return constant(5, value, 2);
+        }
+
+        int constantDouble(double value) {
+            return constant(6, Double.doubleToRawLongBits(value), 2);
+        }
+
+        int methodRef(String owner, String name, String descriptor) {
+            int nameAndType = constant(12, new int[] { utf8(name), utf8(descriptor) }, 1);
+            return constant(10, new int[] { classRef(owner), nameAndType }, 1);
+        }
+
+        byte[] toBytes(String methodName, String methodDescriptor, int maxLocals, Code method) {
+            Code init = new Code();
+            init.op(ALOAD_0).op(INVOKESPECIAL).u2(methodRef("java/lang/Object", "<init>", "()V")).op(RETURN);
+            int initName = utf8("<init>"), initDescriptor = utf8("()V");
+            int name = utf8(methodName), descriptor = utf8(methodDescriptor);
+            int codeName = utf8("Code");
+
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            try {
+                out.writeInt(0xCAFEBABE);
+                out.writeShort(0);
+                // Java 8
+                out.writeShort(52);
+                out.writeShort(poolCount);
+                pool.writeTo(out);
+                // public final super
+                out.writeShort(0x0031);
+                out.writeShort(thisClass);
+                out.writeShort(superClass);
+                out.writeShort(1);
+                out.writeShort(interfaceClass);
+                out.writeShort(0);
+                out.writeShort(2);
+                writeMethod(out, initName, initDescriptor, codeName, 1, 1, init);
+                // Two longs or doubles on the stack at once
+                writeMethod(out, name, descriptor, codeName, 4, maxLocals, method);
+                out.writeShort(0);
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+            return bytes.toByteArray();
+        }
+
+        private static void writeMethod(DataOutputStream out, int name, int descriptor, int codeName, int maxStack,
+                int maxLocals, Code code) throws IOException {
+            // public
+            out.writeShort(0x0001);
+            out.writeShort(name);
+            out.writeShort(descriptor);
+            out.writeShort(1);
+            out.writeShort(codeName);
+            out.writeInt(12 + code.size());
+            out.writeShort(maxStack);
+            out.writeShort(maxLocals);
+            out.writeInt(code.size());
+            code.bytes.writeTo(out);
+            // No exception table or attributes
+            out.writeShort(0);
+            out.writeShort(0);
+        }
+    }
+
+    /** Each compiled class gets its own loader, so it can be unloaded as soon as it isn't used any more. */
+    private static final class Loader extends ClassLoader {
+        Loader() {
+            super(MathCompiler.class.getClassLoader());
+        }
+
+        Class<?> define(String name, byte[] bytes) {
+            return defineClass(name, bytes, 0, bytes.length);
+        }
+    }
+}
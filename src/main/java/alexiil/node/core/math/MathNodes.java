@@ -3,12 +3,20 @@
  * See the file "LICENSE" for copying permission. */
 package alexiil.node.core.math;
 
+import java.util.Arrays;
+
+import alexiil.node.core.ChannelSinkNode;
+import alexiil.node.core.InputNode;
 import alexiil.node.core.NodeGraph;
+import alexiil.node.core.NodeGraph.DoubleConnection;
+import alexiil.node.core.NodeGraph.LongConnection;
 import alexiil.node.core.NodeRegistry;
 import alexiil.node.core.ReturnNode;
 import alexiil.node.core.ValueNode;
 import alexiil.node.core.math.SimpleMathNode.DoubleNode;
+import alexiil.node.core.math.SimpleMathNode.DoubleNode.DoubleApplier;
 import alexiil.node.core.math.SimpleMathNode.LongNode;
+import alexiil.node.core.math.SimpleMathNode.LongNode.LongApplier;
 
 /** Stores all mathematical nodes: input, creation, modification and returning. Handles {@link Long} and {@link Double}
  * 
@@ -19,16 +27,18 @@ public class MathNodes {
     public static final NodeRegistry mathRegistry = new NodeRegistry("math");
 
     public static final ValueNode<Long> longCreator;
-    // public static final InputNode<Long> longInput;
+    public static final InputNode<Long> longInput;
     public static final ReturnNode<Long> longReturner;
+    public static final ChannelSinkNode<Long> longSink;
     public static final SimpleMathNode.LongNode longAdder;
     public static final SimpleMathNode.LongNode longSubtractor;
     public static final SimpleMathNode.LongNode longMultiplier;
     public static final SimpleMathNode.LongNode longDivider;
 
     public static final ValueNode<Double> doubleCreator;
-    // public static final InputNode<Double> doubleInput;
+    public static final InputNode<Double> doubleInput;
     public static final ReturnNode<Double> doubleReturner;
+    public static final ChannelSinkNode<Double> doubleSink;
     public static final SimpleMathNode.DoubleNode doubleAdder;
     public static final SimpleMathNode.DoubleNode doubleSubtractor;
     public static final SimpleMathNode.DoubleNode doubleMultiplier;
@@ -37,32 +47,63 @@ public class MathNodes {
 
     static {
         mathRegistry.registerNodeType(longCreator = new NodeValueLong("LongCreate", 0L));
-        // mathRegistry.registerNodeType(longInput = new InputNode<>(mathRegistry, "LongInput", Long.class));
+        mathRegistry.registerNodeType(longInput = new InputNode<>(mathRegistry, "LongInput", Long.class));
         mathRegistry.registerNodeType(longReturner = new ReturnNode<>(mathRegistry, "LongReturn", Long.class));
-        mathRegistry.registerNodeType(longAdder = new LongNode(mathRegistry, "LongAdder", (a, b) -> a + b));
-        mathRegistry.registerNodeType(longSubtractor = new LongNode(mathRegistry, "LongSubtractor", (a, b) -> a - b));
-        mathRegistry.registerNodeType(longMultiplier = new LongNode(mathRegistry, "LongMultiplier", (a, b) -> a * b));
-        mathRegistry.registerNodeType(longDivider = new LongNode(mathRegistry, "LongDivider", (a, b) -> a / b));
+        mathRegistry.registerNodeType(longSink = new ChannelSinkNode<>(mathRegistry, "LongSink", Long.class));
+        mathRegistry.registerNodeType(longAdder = new LongNode(mathRegistry, "LongAdder", LongOperation.ADD));
+        mathRegistry.registerNodeType(longSubtractor = new LongNode(mathRegistry, "LongSubtractor", LongOperation.SUBTRACT));
+        mathRegistry.registerNodeType(longMultiplier = new LongNode(mathRegistry, "LongMultiplier", LongOperation.MULTIPLY));
+        mathRegistry.registerNodeType(longDivider = new LongNode(mathRegistry, "LongDivider", LongOperation.DIVIDE));
 
         mathRegistry.registerNodeType(doubleCreator = new NodeValueDouble("DoubleCreate", 0.0));
-        // mathRegistry.registerNodeType(doubleInput = new InputNode<>(mathRegistry, "DoubleInput", Double.class));
+        mathRegistry.registerNodeType(doubleInput = new InputNode<>(mathRegistry, "DoubleInput", Double.class));
         mathRegistry.registerNodeType(doubleReturner = new ReturnNode<>(mathRegistry, "DoubleReturn", Double.class));
-        mathRegistry.registerNodeType(doubleAdder = new DoubleNode(mathRegistry, "DoubleAdder", (a, b) -> a + b));
-        mathRegistry.registerNodeType(doubleSubtractor = new DoubleNode(mathRegistry, "DoubleSubtractor", (a, b) -> a - b));
-        mathRegistry.registerNodeType(doubleMultiplier = new DoubleNode(mathRegistry, "DoubleMultiplier", (a, b) -> a * b));
-        mathRegistry.registerNodeType(doubleDivider = new DoubleNode(mathRegistry, "DoubleDivider", (a, b) -> a / b));
-        mathRegistry.registerNodeType(doublePower = new DoubleNode(mathRegistry, "DoublePower", (a, b) -> Math.pow(a, b)));
+        mathRegistry.registerNodeType(doubleSink = new ChannelSinkNode<>(mathRegistry, "DoubleSink", Double.class));
+        mathRegistry.registerNodeType(doubleAdder = new DoubleNode(mathRegistry, "DoubleAdder", DoubleOperation.ADD));
+        mathRegistry.registerNodeType(doubleSubtractor = new DoubleNode(mathRegistry, "DoubleSubtractor", DoubleOperation.SUBTRACT));
+        mathRegistry.registerNodeType(doubleMultiplier = new DoubleNode(mathRegistry, "DoubleMultiplier", DoubleOperation.MULTIPLY));
+        mathRegistry.registerNodeType(doubleDivider = new DoubleNode(mathRegistry, "DoubleDivider", DoubleOperation.DIVIDE));
+        mathRegistry.registerNodeType(doublePower = new DoubleNode(mathRegistry, "DoublePower", DoubleOperation.POWER));
 
         mathRegistry.setImmutable();
     }
 
     private static class NodeValueLong extends ValueNode<Long> {
+        private final LongConnection connection;
+        /** An array filled with the value, so whole chunks of it can be pushed at once */
+        private long[] chunk = new long[0];
+
         private NodeValueLong(String typeTag, long value) {
             super(mathRegistry, typeTag, value, Long.class);
+            connection = null;
         }
 
         private NodeValueLong(String typeTag, NodeGraph graph, Long value, String name) {
             super(mathRegistry, typeTag, graph, value, Long.class, name);
+            connection = (LongConnection) getOutputs().get("val");
+        }
+
+        @Override
+        protected boolean computeNext() {
+            int count = connection.getRequestedElements();
+            if (count <= 0)
+                return false;
+            while (count > 0) {
+                count = Math.min(count, SimpleMathNode.MAX_CHUNK);
+                if (chunk.length < count) {
+                    chunk = new long[Math.min(SimpleMathNode.MAX_CHUNK, Math.max(count, chunk.length * 2))];
+                    Arrays.fill(chunk, value);
+                }
+                connection.pushLongs(chunk, 0, count);
+                count = connection.getRequestedElements();
+            }
+            return true;
+        }
+
+        @Override
+        public void setValue(Long value) {
+            super.setValue(value);
+            Arrays.fill(chunk, value);
         }
 
         @Override
@@ -84,12 +125,41 @@ public class MathNodes {
     }
 
     private static class NodeValueDouble extends ValueNode<Double> {
+        private final DoubleConnection connection;
+        /** An array filled with the value, so whole chunks of it can be pushed at once */
+        private double[] chunk = new double[0];
+
         private NodeValueDouble(String typeTag, double value) {
             super(mathRegistry, typeTag, value, Double.class);
+            connection = null;
         }
 
         private NodeValueDouble(String typeTag, NodeGraph graph, Double value, String name) {
             super(mathRegistry, typeTag, graph, value, Double.class, name);
+            connection = (DoubleConnection) getOutputs().get("val");
+        }
+
+        @Override
+        protected boolean computeNext() {
+            int count = connection.getRequestedElements();
+            if (count <= 0)
+                return false;
+            while (count > 0) {
+                count = Math.min(count, SimpleMathNode.MAX_CHUNK);
+                if (chunk.length < count) {
+                    chunk = new double[Math.min(SimpleMathNode.MAX_CHUNK, Math.max(count, chunk.length * 2))];
+                    Arrays.fill(chunk, value);
+                }
+                connection.pushDoubles(chunk, 0, count);
+                count = connection.getRequestedElements();
+            }
+            return true;
+        }
+
+        @Override
+        public void setValue(Double value) {
+            super.setValue(value);
+            Arrays.fill(chunk, value);
         }
 
         @Override
@@ -109,4 +179,124 @@ public class MathNodes {
             return new NodeValueDouble(getTypeTag(), graph, value, name);
         }
     }
+
+    /** The operations of the built in {@link LongNode}s. Each one has its own loop over whole chunks, as a shared loop
+     * calling {@link LongApplier#apply(long, long)} could not be inlined or vectorised. */
+    enum LongOperation implements LongApplier {
+        ADD {
+            @Override
+            public long apply(long a, long b) {
+                return a + b;
+            }
+
+            @Override
+            public void apply(long[] a, long[] b, long[] out, int count) {
+                for (int i = 0; i < count; i++) {
+                    out[i] = a[i] + b[i];
+                }
+            }
+        },
+        SUBTRACT {
+            @Override
+            public long apply(long a, long b) {
+                return a - b;
+            }
+
+            @Override
+            public void apply(long[] a, long[] b, long[] out, int count) {
+                for (int i = 0; i < count; i++) {
+                    out[i] = a[i] - b[i];
+                }
+            }
+        },
+        MULTIPLY {
+            @Override
+            public long apply(long a, long b) {
+                return a * b;
+            }
+
+            @Override
+            public void apply(long[] a, long[] b, long[] out, int count) {
+                for (int i = 0; i < count; i++) {
+                    out[i] = a[i] * b[i];
+                }
+            }
+        },
+        DIVIDE {
+            @Override
+            public long apply(long a, long b) {
+                return a / b;
+            }
+
+            @Override
+            public void apply(long[] a, long[] b, long[] out, int count) {
+                for (int i = 0; i < count; i++) {
+                    out[i] = a[i] / b[i];
+                }
+            }
+        };
+    }
+
+    /** The operations of the built in {@link DoubleNode}s. Each one has its own loop over whole chunks, as a shared loop
+     * calling {@link DoubleApplier#apply(double, double)} could not be inlined or vectorised. */
+    enum DoubleOperation implements DoubleApplier {
+        ADD {
+            @Override
+            public double apply(double a, double b) {
+                return a + b;
+            }
+
+            @Override
+            public void apply(double[] a, double[] b, double[] out, int count) {
+                for (int i = 0; i < count; i++) {
+                    out[i] = a[i] + b[i];
+                }
+            }
+        },
+        SUBTRACT {
+            @Override
+            public double apply(double a, double b) {
+                return a - b;
+            }
+
+            @Override
+            public void apply(double[] a, double[] b, double[] out, int count) {
+                for (int i = 0; i < count; i++) {
+                    out[i] = a[i] - b[i];
+                }
+            }
+        },
+        MULTIPLY {
+            @Override
+            public double apply(double a, double b) {
+                return a * b;
+            }
+
+            @Override
+            public void apply(double[] a, double[] b, double[] out, int count) {
+                for (int i = 0; i < count; i++) {
+                    out[i] = a[i] * b[i];
+                }
+            }
+        },
+        DIVIDE {
+            @Override
+            public double apply(double a, double b) {
+                return a / b;
+            }
+
+            @Override
+            public void apply(double[] a, double[] b, double[] out, int count) {
+                for (int i = 0; i < count; i++) {
+                    out[i] = a[i] / b[i];
+                }
+            }
+        },
+        POWER {
+            @Override
+            public double apply(double a, double b) {
+                return Math.pow(a, b);
+            }
+        };
+    }
 }
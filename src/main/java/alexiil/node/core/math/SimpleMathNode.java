@@ -3,16 +3,24 @@
  * See the file "LICENSE" for copying permission. */
 package alexiil.node.core.math;
 
+import java.util.Collections;
+import java.util.Map;
 import java.util.function.Consumer;
 
 import com.google.common.base.Supplier;
 
 import alexiil.node.core.AbstractNode;
+import alexiil.node.core.INodeFoldable;
 import alexiil.node.core.NodeGraph;
+import alexiil.node.core.NodeGraph.DoubleConnection;
+import alexiil.node.core.NodeGraph.LongConnection;
 import alexiil.node.core.NodeRegistry;
 
 /** Takes 2 inputs and produces 1 output. */
-public abstract class SimpleMathNode<N extends Number> extends AbstractNode {
+public abstract class SimpleMathNode<N extends Number> extends AbstractNode implements INodeFoldable {
+    /** The most elements {@link LongNode} and {@link DoubleNode} will pop from each input at once. */
+    public static final int MAX_CHUNK = 1024;
+
     private final Supplier<N> inA, inB;
     private final Consumer<N> out;
 
@@ -42,17 +50,55 @@ public abstract class SimpleMathNode<N extends Number> extends AbstractNode {
 
     protected abstract N apply(N a, N b);
 
+    @Override
+    @SuppressWarnings("unchecked")
+    public Map<String, Object> fold(Map<String, Object> inputs) {
+        return Collections.singletonMap("ans", apply((N) inputs.get("a"), (N) inputs.get("b")));
+    }
+
+    /** A math node that works directly on longs, without boxing them. */
     public static class LongNode extends SimpleMathNode<Long> {
         private final LongApplier applier;
+        private final LongConnection a, b, ans;
+        private long[] chunkA = new long[0], chunkB = new long[0];
 
         public LongNode(NodeRegistry registry, String typeTag, LongApplier applier) {
             super(registry, typeTag);
             this.applier = applier;
+            a = b = ans = null;
         }
 
         public LongNode(NodeRegistry registry, String typeTag, NodeGraph graph, LongApplier applier, String name) {
             super(registry, typeTag, graph, Long.class, name);
             this.applier = applier;
+            a = (LongConnection) getInputs().get("a");
+            b = (LongConnection) getInputs().get("b");
+            ans = (LongConnection) getOutputs().get("ans");
+        }
+
+        /** Computes as many elements as possible (up to {@link #MAX_CHUNK}) in one go. */
+        @Override
+        protected boolean computeNext() {
+            int count = Math.min(a.getRemainingElements(), b.getRemainingElements());
+            count = Math.min(count, Math.min(ans.getFreeSpace(), MAX_CHUNK));
+            if (count <= 1) {
+                ans.pushLong(applier.apply(a.popLong(), b.popLong()));
+                return true;
+            }
+            if (chunkA.length < count) {
+                int length = Math.min(MAX_CHUNK, Math.max(count, chunkA.length * 2));
+                chunkA = new long[length];
+                chunkB = new long[length];
+            }
+            a.popLongs(chunkA, 0, count);
+            b.popLongs(chunkB, 0, count);
+            applier.apply(chunkA, chunkB, chunkA, count);
+            ans.pushLongs(chunkA, 0, count);
+            return true;
+        }
+
+        LongApplier getApplier() {
+            return applier;
         }
 
         @Override
@@ -67,20 +113,60 @@ public abstract class SimpleMathNode<N extends Number> extends AbstractNode {
 
         public interface LongApplier {
             long apply(long a, long b);
+
+            /** Sets out[i] to apply(a[i], b[i]) for every i below count. "out" may be the same array as "a" or "b".
+             * Override this with a plain loop over the arrays so the JIT can vectorise it. */
+            default void apply(long[] a, long[] b, long[] out, int count) {
+                for (int i = 0; i < count; i++) {
+                    out[i] = apply(a[i], b[i]);
+                }
+            }
         }
     }
 
+    /** A math node that works directly on doubles, without boxing them. */
     public static class DoubleNode extends SimpleMathNode<Double> {
         private final DoubleApplier applier;
+        private final DoubleConnection a, b, ans;
+        private double[] chunkA = new double[0], chunkB = new double[0];
 
         public DoubleNode(NodeRegistry registry, String typeTag, DoubleApplier applier) {
             super(registry, typeTag);
             this.applier = applier;
+            a = b = ans = null;
         }
 
         public DoubleNode(NodeRegistry registry, String typeTag, NodeGraph graph, DoubleApplier applier, String name) {
             super(registry, typeTag, graph, Double.class, name);
             this.applier = applier;
+            a = (DoubleConnection) getInputs().get("a");
+            b = (DoubleConnection) getInputs().get("b");
+            ans = (DoubleConnection) getOutputs().get("ans");
+        }
+
+        /** Computes as many elements as possible (up to {@link #MAX_CHUNK}) in one go. */
+        @Override
+        protected boolean computeNext() {
+            int count = Math.min(a.getRemainingElements(), b.getRemainingElements());
+            count = Math.min(count, Math.min(ans.getFreeSpace(), MAX_CHUNK));
+            if (count <= 1) {
+                ans.pushDouble(applier.apply(a.popDouble(), b.popDouble()));
+                return true;
+            }
+            if (chunkA.length < count) {
+                int length = Math.min(MAX_CHUNK, Math.max(count, chunkA.length * 2));
+                chunkA = new double[length];
+                chunkB = new double[length];
+            }
+            a.popDoubles(chunkA, 0, count);
+            b.popDoubles(chunkB, 0, count);
+            applier.apply(chunkA, chunkB, chunkA, count);
+            ans.pushDoubles(chunkA, 0, count);
+            return true;
+        }
+
+        DoubleApplier getApplier() {
+            return applier;
         }
 
         @Override
@@ -95,6 +181,14 @@ public abstract class SimpleMathNode<N extends Number> extends AbstractNode {
 
         public interface DoubleApplier {
             double apply(double a, double b);
+
+            /** Sets out[i] to apply(a[i], b[i]) for every i below count. "out" may be the same array as "a" or "b".
+             * Override this with a plain loop over the arrays so the JIT can vectorise it. */
+            default void apply(double[] a, double[] b, double[] out, int count) {
+                for (int i = 0; i < count; i++) {
+                    out[i] = apply(a[i], b[i]);
+                }
+            }
         }
     }
 }
@@ -0,0 +1,106 @@
+/* Copyright (c) 2015 AlexIIL
+ *
+ * See the file "LICENSE" for copying permission. */
+package alexiil.node.core.test;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import alexiil.node.core.INode;
+import alexiil.node.core.NodeGraph;
+import alexiil.node.core.NodeGraph.GraphConnection;
+import alexiil.node.core.NodeGraph.LongConnection;
+import alexiil.node.core.ReturnNode;
+import alexiil.node.core.math.MathNodes;
+
+public class ConnectionTester {
+    @Test
+    public void testFifoOrder() {
+        NodeGraph graph = new NodeGraph();
+        INode value = graph.addCopyOf(MathNodes.longCreator.createNode(0L), "value");
+        ReturnNode<Long> returnNode = graph.addCopyOf(MathNodes.longReturner, "return");
+        graph.connectIO(value, "val", returnNode, "val");
+
+        LongConnection out = (LongConnection) value.getOutputs().get("val");
+        for (long i = 1; i <= 20; i++) {
+            out.pushLong(i);
+        }
+        for (long i = 1; i <= 20; i++) {
+            Assert.assertEquals(i, (long) returnNode.get());
+        }
+    }
+
+    @Test
+    public void testBoundedBackpressure() {
+        NodeGraph graph = new NodeGraph(4);
+        INode value = graph.addCopyOf(MathNodes.longCreator.createNode(3L), "value");
+        INode adder = graph.addCopyOf(MathNodes.longAdder, "adder");
+        ReturnNode<Long> returnNode = graph.addCopyOf(MathNodes.longReturner, "return");
+        graph.connectIO(value, "val", adder, "a");
+        graph.connectIO(value, "val", adder, "b");
+        graph.connectIO(adder, "ans", returnNode, "val");
+
+        GraphConnection<?> in = returnNode.getInputs().get("val");
+        Assert.assertEquals(4, in.getCapacity());
+
+        in.requestUpTo(10);
+        Assert.assertEquals(4, in.getRequestedElements());
+
+        graph.iterate(returnNode);
+        Assert.assertEquals(4, in.getRemainingElements());
+        Assert.assertEquals(0, in.getFreeSpace());
+        Assert.assertEquals(0, adder.getOutputs().get("ans").getFreeSpace());
+
+        // Full, so nothing more should be requested upstream
+        in.requestUpTo(10);
+        Assert.assertEquals(0, in.getRequestedElements());
+        Assert.assertEquals(0, adder.getInputs().get("a").getRemainingElements());
+        Assert.assertEquals(6, (long) returnNode.get());
+    }
+
+    @Test
+    public void testChunksWrapAround() {
+        NodeGraph graph = new NodeGraph(8);
+        INode value = graph.addCopyOf(MathNodes.longCreator.createNode(0L), "value");
+        ReturnNode<Long> returnNode = graph.addCopyOf(MathNodes.longReturner, "return");
+        graph.connectIO(value, "val", returnNode, "val");
+
+        LongConnection out = (LongConnection) value.getOutputs().get("val");
+        LongConnection in = (LongConnection) returnNode.getInputs().get("val");
+        long[] popped = new long[5];
+        long next = 0;
+        // 5 doesn't divide 8, so most of these chunks are split across the end of the ring
+        for (int round = 0; round < 10; round++) {
+            long[] pushed = new long[5];
+            for (int i = 0; i < 5; i++) {
+                pushed[i] = next++;
+            }
+            out.pushLongs(pushed, 0, 5);
+            Assert.assertEquals(5, in.getRemainingElements());
+            in.popLongs(popped, 0, 5);
+            Assert.assertArrayEquals(pushed, popped);
+        }
+    }
+
+    @Test
+    public void testChunkedMath() {
+        NodeGraph graph = new NodeGraph(100);
+        INode three = graph.addCopyOf(MathNodes.longCreator.createNode(3L), "three");
+        INode four = graph.addCopyOf(MathNodes.longCreator.createNode(4L), "four");
+        INode multiplier = graph.addCopyOf(MathNodes.longMultiplier, "multiplier");
+        INode subtractor = graph.addCopyOf(MathNodes.longSubtractor, "subtractor");
+        ReturnNode<Long> returnNode = graph.addCopyOf(MathNodes.longReturner, "return");
+        graph.connectIO(three, "val", multiplier, "a");
+        graph.connectIO(four, "val", multiplier, "b");
+        graph.connectIO(multiplier, "ans", subtractor, "a");
+        graph.connectIO(three, "val", subtractor, "b");
+        graph.connectIO(subtractor, "ans", returnNode, "val");
+
+        long[] values = new long[1234];
+        returnNode.get(values);
+        for (long val : values) {
+            Assert.assertEquals(9, val);
+        }
+        Assert.assertEquals(9, (long) returnNode.get());
+    }
+}
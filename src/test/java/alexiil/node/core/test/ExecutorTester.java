@@ -0,0 +1,231 @@
+/* Copyright (c) 2015 AlexIIL
+ *
+ * See the file "LICENSE" for copying permission. */
+package alexiil.node.core.test;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.google.common.base.Supplier;
+import com.google.common.collect.Lists;
+
+import alexiil.node.core.AbstractNode;
+import alexiil.node.core.ExecutionContext;
+import alexiil.node.core.ForkJoinExecutor;
+import alexiil.node.core.GraphTracer;
+import alexiil.node.core.INode;
+import alexiil.node.core.NodeGraph;
+import alexiil.node.core.ReturnNode;
+import alexiil.node.core.SharedGraph;
+import alexiil.node.core.math.MathNodes;
+
+public class ExecutorTester {
+    /** Passes its input straight through, but isn't foldable. */
+    private static class PassNode extends AbstractNode {
+        private final Supplier<Long> in;
+        private final Consumer<Long> out;
+
+        PassNode(NodeGraph graph, String name) {
+            super(null, "pass", graph, name);
+            addInput("a", Long.class);
+            addOutput("ans", Long.class);
+            in = getInputSupplier("a");
+            out = getOutputConsumer("ans");
+        }
+
+        @Override
+        protected boolean computeNext() {
+            out.accept(in.get());
+            return true;
+        }
+
+        @Override
+        public AbstractNode createCopy(NodeGraph graph, String name) {
+            return new PassNode(graph, name);
+        }
+    }
+
+    private static ReturnNode<Long> addReturn(NodeGraph graph) {
+        ReturnNode<Long> returnNode = graph.addCopyOf(MathNodes.longReturner, "return");
+        graph.connectIO(graph.getNode("sum"), "ans", returnNode, "val");
+        return returnNode;
+    }
+
+    @Test
+    public void testForkJoinMatchesSequential() {
+        ReturnNode<Long> sequential = addReturn(TestUtils.makeWideMathLongGraph(64, 8));
+        long expected = sequential.get();
+
+        NodeGraph graph = TestUtils.makeWideMathLongGraph(64, 8);
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            graph.setExecutor(new ForkJoinExecutor(pool, 1));
+            ReturnNode<Long> parallel = addReturn(graph);
+            for (int i = 0; i < 20; i++) {
+                Assert.assertEquals(expected, (long) parallel.get());
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void testSharedGraph() throws Exception {
+        NodeGraph graph = TestUtils.makeWideMathLongGraph(16, 8);
+        long expected = addReturn(graph).get();
+        PassNode pass = new PassNode(graph, "pass");
+        graph.addNode(pass);
+        graph.connectIO(graph.getNode("sum"), "ans", pass, "a");
+        ReturnNode<Long> passReturn = graph.addCopyOf(MathNodes.longReturner, "passReturn");
+        graph.connectIO(pass, "ans", passReturn, "val");
+
+        SharedGraph shared = new SharedGraph(graph);
+        Assert.assertTrue(shared.isFoldable("return"));
+        Assert.assertFalse(shared.isFoldable("passReturn"));
+        try (ExecutionContext context = shared.acquire()) {
+            Assert.assertEquals(expected, (long) context.get("return", Long.class));
+            Assert.assertEquals(expected, (long) context.get("passReturn", Long.class));
+        }
+        // Changing the original graph doesn't change the snapshot
+        graph.addCopyOf(MathNodes.longReturner, "other");
+        try {
+            shared.get("other", Long.class);
+            Assert.fail("Found a node that was added after the snapshot");
+        } catch (IllegalArgumentException expectedException) {}
+
+        ExecutorService threads = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<Long>> results = Lists.newArrayList();
+            for (int i = 0; i < 400; i++) {
+                String name = i % 4 == 0 ? "passReturn" : "return";
+                results.add(threads.submit((Callable<Long>) () -> shared.get(name, Long.class)));
+            }
+            for (Future<Long> result : results) {
+                Assert.assertEquals(expected, (long) result.get());
+            }
+        } finally {
+            threads.shutdown();
+        }
+    }
+
+    @Test
+    public void testSharedGraphFailures() {
+        NodeGraph graph = new NodeGraph();
+        INode one = graph.addCopyOf(MathNodes.longCreator.createNode(1L), "one");
+        INode zero = graph.addCopyOf(MathNodes.longCreator.createNode(0L), "zero");
+        INode divider = graph.addCopyOf(MathNodes.longDivider, "divider");
+        graph.connectIO(one, "val", divider, "a");
+        graph.connectIO(zero, "val", divider, "b");
+        PassNode pass = new PassNode(graph, "pass");
+        graph.addNode(pass);
+        graph.connectIO(divider, "ans", pass, "a");
+        ReturnNode<Long> folded = graph.addCopyOf(MathNodes.longReturner, "folded");
+        graph.connectIO(divider, "ans", folded, "val");
+        ReturnNode<Long> normal = graph.addCopyOf(MathNodes.longReturner, "normal");
+        graph.connectIO(pass, "ans", normal, "val");
+
+        SharedGraph shared = new SharedGraph(graph);
+        Assert.assertTrue(shared.isFoldable("folded"));
+        Assert.assertFalse(shared.isFoldable("normal"));
+        // Both ways of evaluating fail in the same way
+        for (String name : new String[] { "folded", "normal" }) {
+            try {
+                shared.get(name, Long.class);
+                Assert.fail("Divided by zero");
+            } catch (IllegalStateException expected) {
+                Assert.assertEquals("Could not GET for " + name, expected.getMessage());
+                Assert.assertTrue(expected.getCause() instanceof ArithmeticException);
+            }
+        }
+    }
+
+    @Test
+    public void testAsync() throws Exception {
+        NodeGraph graph = TestUtils.makeTestMathLongGraph();
+        ReturnNode<Long> fifth = graph.addCopyOf(MathNodes.longReturner, "fifth");
+        graph.connectIO(graph.getNode("fifthAdder"), "ans", fifth, "val");
+        ReturnNode<Long> subtractor = graph.addCopyOf(MathNodes.longReturner, "subtractor");
+        graph.connectIO(graph.getNode("subtractor"), "ans", subtractor, "val");
+        int[] iterations = { 0 }, computed = { 0 };
+        GraphTracer tracer = new GraphTracer() {
+            @Override
+            public void onIterationStart(NodeGraph graph) {
+                iterations[0]++;
+            }
+
+            @Override
+            public void onComputeStart(INode node) {
+                if (node.getName().equals("subtractor"))
+                    computed[0]++;
+            }
+        };
+        graph.setTracer(tracer);
+
+        // Nothing runs until the executor does, so all three of these end up in the same evaluation
+        Deque<Runnable> tasks = new ArrayDeque<>();
+        CompletableFuture<Long> first = fifth.getAsync(tasks::add);
+        CompletableFuture<Long> second = subtractor.getAsync(tasks::add);
+        CompletableFuture<Long> third = fifth.getAsync(tasks::add);
+        CompletableFuture<Long> combined = first.thenCombine(second, (a, b) -> a - b);
+        Assert.assertEquals(1, tasks.size());
+        Assert.assertFalse(first.isDone());
+        tasks.poll().run();
+        Assert.assertEquals(28, (long) first.get());
+        Assert.assertEquals(2, (long) second.get());
+        Assert.assertEquals(28, (long) third.get());
+        Assert.assertEquals(26, (long) combined.get());
+        Assert.assertEquals(1, iterations[0]);
+        // Both fifth values and the subtractor value come from the same two subtractor computations
+        Assert.assertEquals(2, computed[0]);
+
+        // Errors fail every waiting future and are then rethrown, without stopping later requests from running
+        graph.setTracer(new GraphTracer() {
+            @Override
+            public void onComputeStart(INode node) {
+                throw new StackOverflowError();
+            }
+        });
+        CompletableFuture<Long> failed = fifth.getAsync(tasks::add);
+        try {
+            tasks.poll().run();
+            Assert.fail("Swallowed an error");
+        } catch (StackOverflowError expected) {}
+        Assert.assertTrue(failed.isCompletedExceptionally());
+        graph.setTracer(tracer);
+        CompletableFuture<Long> after = fifth.getAsync(tasks::add);
+        Assert.assertEquals(1, tasks.size());
+        tasks.poll().run();
+        Assert.assertEquals(28, (long) after.get());
+
+        ExecutorService threads = Executors.newSingleThreadExecutor();
+        try {
+            List<Object> values = graph.evaluateAsync(threads, subtractor, fifth).get();
+            Assert.assertEquals(Arrays.asList(2L, 28L), values);
+            Assert.assertEquals(3, iterations[0]);
+
+            ReturnNode<Long> unconnected = graph.addCopyOf(MathNodes.longReturner, "unconnected");
+            try {
+                unconnected.getAsync(threads).get();
+                Assert.fail("Computed a value for an unconnected node");
+            } catch (ExecutionException expected) {
+                Assert.assertTrue(expected.getCause() instanceof IllegalStateException);
+            }
+            Assert.assertEquals(28, (long) fifth.getAsync(threads).get());
+        } finally {
+            threads.shutdown();
+        }
+    }
+}
@@ -0,0 +1,187 @@
+/* Copyright (c) 2015 AlexIIL
+ *
+ * See the file "LICENSE" for copying permission. */
+package alexiil.node.core.test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import alexiil.node.core.GraphReader;
+import alexiil.node.core.GraphTemplateCache;
+import alexiil.node.core.GraphReader.Flag;
+import alexiil.node.core.GraphReader.SaveType;
+import alexiil.node.core.INode;
+import alexiil.node.core.NodeGraph;
+import alexiil.node.core.ReturnNode;
+import alexiil.node.core.math.MathNodes;
+
+public class GraphReaderTester {
+    private static byte[] write(NodeGraph graph, SaveType type, Flag... flags) throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        GraphReader.writeNodeGraph(baos, graph, type, flags);
+        return baos.toByteArray();
+    }
+
+    private static long readAndGet(byte[] bytes, String from) throws IOException {
+        NodeGraph graph = GraphReader.readNodeGraph(new ByteArrayInputStream(bytes));
+        ReturnNode<Long> returnNode = graph.addCopyOf(MathNodes.longReturner, "return");
+        graph.connectIO(graph.getNode(from), "ans", returnNode, "val");
+        return returnNode.get();
+    }
+
+    @Test
+    public void testBytesCompact() throws IOException {
+        NodeGraph graph = TestUtils.makeTestMathLongGraph();
+        byte[] json = write(graph, SaveType.READABLE_JSON);
+        byte[] bytes = write(graph, SaveType.BYTES_COMPACT);
+        byte[] compressed = write(graph, SaveType.BYTES_COMPACT, Flag.COMPRESSED);
+
+        Assert.assertEquals(28, readAndGet(bytes, "fifthAdder"));
+        Assert.assertEquals(28, readAndGet(compressed, "fifthAdder"));
+        Assert.assertTrue(bytes.length * 4 < json.length);
+    }
+
+    @Test
+    public void testBytesCompactValues() throws IOException {
+        NodeGraph graph = new NodeGraph();
+        INode negative = graph.addCopyOf(MathNodes.longCreator.createNode(-123456789012L), "negative");
+        INode large = graph.addCopyOf(MathNodes.longCreator.createNode(Long.MAX_VALUE), "large");
+        INode adder = graph.addCopyOf(MathNodes.longAdder, "adder");
+        INode halves = graph.addCopyOf(MathNodes.doubleCreator.createNode(0.5), "halves");
+        INode power = graph.addCopyOf(MathNodes.doublePower, "power");
+        graph.connectIO(negative, "val", adder, "a");
+        graph.connectIO(large, "val", adder, "b");
+        graph.connectIO(halves, "val", power, "a");
+        graph.connectIO(halves, "val", power, "b");
+
+        NodeGraph read = GraphReader.readNodeGraph(new ByteArrayInputStream(write(graph, SaveType.BYTES_COMPACT)));
+        Assert.assertNotNull(read.getNode("large"));
+        Assert.assertEquals(readAndGet(write(graph, SaveType.READABLE_JSON), "adder"), readAndGet(write(read,
+                SaveType.BYTES_COMPACT), "adder"));
+
+        ReturnNode<Double> returnNode = read.addCopyOf(MathNodes.doubleReturner, "return");
+        read.connectIO(read.getNode("power"), "ans", returnNode, "val");
+        Assert.assertEquals(Math.pow(0.5, 0.5), returnNode.get(), 0);
+    }
+
+    @Test
+    public void testReadableCompact() throws IOException {
+        NodeGraph graph = TestUtils.makeTestMathLongGraph();
+        INode odd = graph.addCopyOf(MathNodes.longCreator.createNode(-7L), "a name with spaces=\\");
+        INode adder = graph.addCopyOf(MathNodes.longAdder, "adder");
+        graph.connectIO(graph.getNode("fifthAdder"), "ans", adder, "a");
+        graph.connectIO(odd, "val", adder, "b");
+
+        byte[] text = write(graph, SaveType.READABLE_COMPACT);
+        Assert.assertEquals(21, readAndGet(text, "adder"));
+        // Writing it again must give exactly the same text
+        NodeGraph read = GraphReader.readNodeGraph(new ByteArrayInputStream(text));
+        Assert.assertArrayEquals(toObjects(text), toObjects(write(read, SaveType.READABLE_COMPACT)));
+    }
+
+    @Test
+    public void testFiles() throws IOException {
+        NodeGraph graph = TestUtils.makeTestMathLongGraph();
+        // Long enough that the JSON is over the memory mapping threshold
+        INode last = graph.getNode("fifthAdder");
+        for (int i = 0; i < 500; i++) {
+            INode adder = graph.addCopyOf(MathNodes.longAdder, "chain" + i);
+            graph.connectIO(last, "ans", adder, "a");
+            graph.connectIO(graph.getNode("4"), "val", adder, "b");
+            last = adder;
+        }
+
+        Path file = Files.createTempFile("graph", ".bin");
+        try {
+            for (SaveType type : SaveType.values()) {
+                GraphReader.writeNodeGraph(file, graph, type);
+                Assert.assertArrayEquals(write(graph, type), Files.readAllBytes(file));
+                NodeGraph read = GraphReader.readNodeGraph(file);
+                ReturnNode<Long> returnNode = read.addCopyOf(MathNodes.longReturner, "return");
+                read.connectIO(read.getNode("chain499"), "ans", returnNode, "val");
+                Assert.assertEquals(28 + 500 * 4, (long) returnNode.get());
+            }
+        } finally {
+            Files.delete(file);
+        }
+
+        byte[] bytes = write(graph, SaveType.BYTES_COMPACT);
+        ByteBuffer direct = ByteBuffer.allocateDirect(bytes.length);
+        direct.put(bytes).flip();
+        Assert.assertNotNull(GraphReader.readNodeGraph(direct).getNode("chain499"));
+        Assert.assertFalse(direct.hasRemaining());
+    }
+
+    @Test
+    public void testTemplateCache() throws IOException {
+        GraphTemplateCache cache = new GraphTemplateCache(100);
+        byte[] bytes = write(TestUtils.makeTestMathLongGraph(), SaveType.BYTES_COMPACT);
+
+        NodeGraph first = cache.load(bytes);
+        NodeGraph second = cache.load(bytes);
+        Assert.assertEquals(1, cache.stats().missCount());
+        Assert.assertEquals(1, cache.stats().hitCount());
+        Assert.assertNotSame(first, second);
+        Assert.assertNotSame(first.getNode("fifthAdder"), second.getNode("fifthAdder"));
+
+        // Changing and evaluating one copy must not affect the next
+        ReturnNode<Long> returnNode = first.addCopyOf(MathNodes.longReturner, "return");
+        first.connectIO(first.getNode("fifthAdder"), "ans", returnNode, "val");
+        Assert.assertEquals(28, (long) returnNode.get());
+        Assert.assertNull(cache.load(bytes).getNode("return"));
+        Assert.assertNull(second.getNode("return"));
+        ReturnNode<Long> secondReturn = second.addCopyOf(MathNodes.longReturner, "return");
+        second.connectIO(second.getNode("fifthAdder"), "ans", secondReturn, "val");
+        Assert.assertEquals(28, (long) secondReturn.get());
+
+    }
+
+    @Test
+    public void testTemplateCacheEviction() throws IOException {
+        GraphTemplateCache cache = new GraphTemplateCache(100);
+        byte[] a = write(makeChain(1, 40), SaveType.BYTES_COMPACT);
+        byte[] b = write(makeChain(2, 40), SaveType.BYTES_COMPACT);
+        byte[] c = write(makeChain(3, 40), SaveType.BYTES_COMPACT);
+
+        cache.load(a);
+        cache.load(b);
+        // Using a again makes b the least recently used
+        cache.load(a);
+        Assert.assertEquals(1, cache.stats().hitCount());
+        // Only two templates fit, so b has to be evicted
+        cache.load(c);
+        Assert.assertEquals(2, cache.size());
+        Assert.assertEquals(1, cache.stats().evictionCount());
+
+        cache.load(c);
+        cache.load(a);
+        Assert.assertEquals(3, cache.stats().hitCount());
+        Assert.assertEquals(3, cache.stats().missCount());
+        cache.load(b);
+        Assert.assertEquals(4, cache.stats().missCount());
+    }
+
+    /** @return A chain of the given number of nodes, starting from a node that creates the given value. */
+    private static NodeGraph makeChain(long start, int nodes) {
+        NodeGraph graph = new NodeGraph();
+        INode last = graph.addCopyOf(MathNodes.longCreator.createNode(start), "0");
+        for (int i = 1; i < nodes; i++) {
+            INode adder = graph.addCopyOf(MathNodes.longAdder, Integer.toString(i));
+            graph.connectIO(last, last.getOutputs().containsKey("ans") ? "ans" : "val", adder, "a");
+            last = adder;
+        }
+        return graph;
+    }
+
+    private static Object[] toObjects(byte[] bytes) {
+        return new String(bytes, 2, bytes.length - 2, StandardCharsets.UTF_8).split("\n");
+    }
+}
@@ -0,0 +1,123 @@
+/* Copyright (c) 2015 AlexIIL
+ *
+ * See the file "LICENSE" for copying permission. */
+package alexiil.node.core.test;
+
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import alexiil.node.core.INode;
+import alexiil.node.core.InputNode;
+import alexiil.node.core.NodeGraph;
+import alexiil.node.core.ReturnNode;
+import alexiil.node.core.image.BlendNode.BlendMode;
+import alexiil.node.core.image.ImageNodes;
+import alexiil.node.core.image.PixelNode.PixelOperations;
+import alexiil.node.core.image.TiledImage;
+import alexiil.node.core.math.MathNodes;
+
+public class ImageTester {
+    private static INode addLong(NodeGraph graph, String name, long value) {
+        return graph.addCopyOf(MathNodes.longCreator.createNode(value), name);
+    }
+
+    @Test
+    public void testCreateInvertAndBlend() {
+        NodeGraph graph = new NodeGraph();
+        INode width = addLong(graph, "width", 600);
+        INode height = addLong(graph, "height", 500);
+        INode colour = addLong(graph, "colour", 0xFF_20_40_60L);
+        INode creator = graph.addCopyOf(ImageNodes.imageCreator, "creator");
+        INode inverter = graph.addCopyOf(ImageNodes.imageInverter, "inverter");
+        INode adder = graph.addCopyOf(ImageNodes.imageAdder, "adder");
+        INode blurrer = graph.addCopyOf(ImageNodes.imageBlurrer, "blurrer");
+        ReturnNode<TiledImage> inverted = graph.addCopyOf(ImageNodes.imageReturner, "inverted");
+        ReturnNode<TiledImage> added = graph.addCopyOf(ImageNodes.imageReturner, "added");
+        ReturnNode<TiledImage> blurred = graph.addCopyOf(ImageNodes.imageReturner, "blurred");
+        graph.connectIO(width, "val", creator, "sizeX");
+        graph.connectIO(height, "val", creator, "sizeY");
+        graph.connectIO(colour, "val", creator, "colour");
+        graph.connectIO(creator, "img", inverter, "img");
+        graph.connectIO(creator, "img", adder, "a");
+        graph.connectIO(inverter, "img", adder, "b");
+        graph.connectIO(creator, "img", blurrer, "img");
+        graph.connectIO(inverter, "img", inverted, "val");
+        graph.connectIO(adder, "img", added, "val");
+        graph.connectIO(blurrer, "img", blurred, "val");
+
+        TiledImage image = inverted.get();
+        Assert.assertEquals(600, image.width);
+        Assert.assertEquals(500, image.height);
+        Assert.assertEquals(6, image.getTileCount());
+        for (int i = 0; i < image.getPixels().length; i++) {
+            Assert.assertEquals(0xFF_DF_BF_9F, image.getPixels()[i]);
+        }
+        TiledImage sum = added.get();
+        Assert.assertEquals(0xFF_FF_FF_FF, sum.getPixel(0, 0));
+        Assert.assertEquals(0xFF_FF_FF_FF, sum.getPixel(599, 499));
+        // Blurring a single colour (with the edges clamped) doesn't change it
+        TiledImage blur = blurred.get();
+        Assert.assertEquals(0xFF_20_40_60, blur.getPixel(0, 0));
+        Assert.assertEquals(0xFF_20_40_60, blur.getPixel(300, 256));
+    }
+
+    @Test
+    public void testTilesMatchWholeImage() {
+        Random rand = new Random(42);
+        BufferedImage source = new BufferedImage(700, 300, BufferedImage.TYPE_INT_ARGB);
+        for (int y = 0; y < source.getHeight(); y++) {
+            for (int x = 0; x < source.getWidth(); x++) {
+                source.setRGB(x, y, rand.nextInt());
+            }
+        }
+        TiledImage wrapped = TiledImage.wrap(source);
+        // Plain ARGB images share their pixels instead of being copied
+        Assert.assertSame(wrapped.getPixels(), TiledImage.wrap(wrapped.toBufferedImage()).getPixels());
+
+        NodeGraph graph = new NodeGraph();
+        InputNode<TiledImage> input = graph.addCopyOf(ImageNodes.imageInput, "input");
+        INode greyscaler = graph.addCopyOf(ImageNodes.imageGreyscaler, "greyscaler");
+        INode sharpener = graph.addCopyOf(ImageNodes.imageSharpener, "sharpener");
+        ReturnNode<TiledImage> grey = graph.addCopyOf(ImageNodes.imageReturner, "grey");
+        ReturnNode<TiledImage> sharp = graph.addCopyOf(ImageNodes.imageReturner, "sharp");
+        graph.connectIO(input, "val", greyscaler, "img");
+        graph.connectIO(input, "val", sharpener, "img");
+        graph.connectIO(greyscaler, "img", grey, "val");
+        graph.connectIO(sharpener, "img", sharp, "val");
+
+        input.setSource(Arrays.asList(wrapped, wrapped).spliterator());
+        TiledImage greyImage = grey.get();
+        TiledImage sharpImage = sharp.get();
+        // The input must never be written to
+        Assert.assertEquals(source.getRGB(123, 45), wrapped.getPixel(123, 45));
+        for (int y = 0; y < wrapped.height; y++) {
+            for (int x = 0; x < wrapped.width; x++) {
+                int argb = wrapped.getPixel(x, y);
+                Assert.assertEquals(PixelOperations.GREYSCALE.apply(argb), greyImage.getPixel(x, y));
+                Assert.assertEquals(sharpen(wrapped, x, y), sharpImage.getPixel(x, y));
+            }
+        }
+        Assert.assertEquals(0xFF_00_00_00, BlendMode.MULTIPLY.blend(0xFF_FF_FF_FF, 0xFF_00_00_00));
+        Assert.assertEquals(0xFF_80_80_80, BlendMode.OVER.blend(0x80_FF_FF_FF, 0xFF_00_00_00));
+    }
+
+    /** A plain (untiled) version of the sharpen kernel, for checking the tiled one against. */
+    private static int sharpen(TiledImage image, int x, int y) {
+        int[][] offsets = { { 0, 0, 5 }, { -1, 0, -1 }, { 1, 0, -1 }, { 0, -1, -1 }, { 0, 1, -1 } };
+        int out = image.getPixel(x, y) & 0xFF_00_00_00;
+        for (int shift = 0; shift < 24; shift += 8) {
+            float sum = 0;
+            for (int[] offset : offsets) {
+                int sx = Math.min(image.width - 1, Math.max(0, x + offset[0]));
+                int sy = Math.min(image.height - 1, Math.max(0, y + offset[1]));
+                sum += offset[2] * ((image.getPixel(sx, sy) >> shift) & 0xFF);
+            }
+            out |= Math.min(255, Math.max(0, Math.round(sum))) << shift;
+        }
+        return out;
+    }
+}
@@ -3,11 +3,13 @@ package alexiil.node.core.test;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 
 import org.junit.Assert;
 import org.junit.Test;
 
 import alexiil.node.core.GraphReader;
+import alexiil.node.core.GraphReader.Flag;
 import alexiil.node.core.GraphReader.SaveType;
 import alexiil.node.core.INode;
 import alexiil.node.core.NodeGraph;
@@ -35,4 +37,41 @@ public class JsonTester {
         long output = returnNode.get();
         Assert.assertEquals(28, output);
     }
+
+    @Test
+    public void testMinifiedOutput() throws IOException {
+        NodeGraph graph = TestUtils.makeTestMathLongGraph();
+
+        ByteArrayOutputStream pretty = new ByteArrayOutputStream();
+        GraphReader.writeNodeGraph(pretty, graph, SaveType.READABLE_JSON);
+        ByteArrayOutputStream minified = new ByteArrayOutputStream();
+        GraphReader.writeNodeGraph(minified, graph, SaveType.READABLE_JSON, Flag.MINIFIED);
+        Assert.assertTrue(minified.size() < pretty.size());
+        Assert.assertFalse(minified.toString("UTF-8").contains("\n"));
+
+        graph = GraphReader.readNodeGraph(new ByteArrayInputStream(minified.toByteArray()));
+        ReturnNode<Long> returnNode = graph.addCopyOf(MathNodes.longReturner, "return");
+        graph.connectIO(graph.getNode("fifthAdder"), "ans", returnNode, "val");
+        Assert.assertEquals(28, (long) returnNode.get());
+    }
+
+    @Test
+    public void testHandEditedJson() throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        GraphReader.writeNodeGraph(baos, TestUtils.makeTestMathLongGraph(), SaveType.READABLE_JSON);
+        byte[] bytes = baos.toByteArray();
+        // Keep whatever comes before the JSON itself, as that says which format it is in
+        int start = new String(bytes, StandardCharsets.ISO_8859_1).indexOf('{');
+        String json = new String(bytes, start, bytes.length - start, StandardCharsets.UTF_8);
+        // Comments, unquoted names and single quoted strings were all accepted when graphs were read by Gson
+        String edited = "# Edited by hand\n" + json.replace("\"name\":", "name:").replace("\"fifthAdder\"", "'fifthAdder'");
+        ByteArrayOutputStream editedBytes = new ByteArrayOutputStream();
+        editedBytes.write(bytes, 0, start);
+        editedBytes.write(edited.getBytes(StandardCharsets.UTF_8));
+
+        NodeGraph graph = GraphReader.readNodeGraph(new ByteArrayInputStream(editedBytes.toByteArray()));
+        ReturnNode<Long> returnNode = graph.addCopyOf(MathNodes.longReturner, "return");
+        graph.connectIO(graph.getNode("fifthAdder"), "ans", returnNode, "val");
+        Assert.assertEquals(28, (long) returnNode.get());
+    }
 }
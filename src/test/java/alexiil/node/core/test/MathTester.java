@@ -3,16 +3,67 @@
  * See the file "LICENSE" for copying permission. */
 package alexiil.node.core.test;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.function.LongSupplier;
+import java.util.stream.LongStream;
+
 import org.junit.Assert;
 import org.junit.Test;
 
+import alexiil.node.core.AbstractNode;
+import alexiil.node.core.ChannelSinkNode;
+import alexiil.node.core.ChannelSinkNode.Encoding;
 import alexiil.node.core.DebugNode;
+import alexiil.node.core.ExecutionPlan;
+import alexiil.node.core.GraphOptimizer;
+import alexiil.node.core.GraphTracer;
 import alexiil.node.core.INode;
+import alexiil.node.core.INodeFoldable;
+import alexiil.node.core.InputNode;
 import alexiil.node.core.NodeGraph;
+import alexiil.node.core.NodeGraph.GraphConnection;
 import alexiil.node.core.ReturnNode;
+import alexiil.node.core.ValueNode;
+import alexiil.node.core.math.MathCompiler;
 import alexiil.node.core.math.MathNodes;
+import alexiil.node.core.math.SimpleMathNode.LongNode;
 
 public class MathTester {
+    /** A sink that can be folded (as it has no outputs to work out), so it must be kept rather than replaced. */
+    private static class FoldableSink extends AbstractNode implements INodeFoldable {
+        FoldableSink(NodeGraph graph, String name) {
+            super(null, "foldableSink", graph, name);
+            addInput("val", Long.class);
+        }
+
+        @Override
+        protected boolean computeNext() {
+            getInputs().get("val").pop();
+            return false;
+        }
+
+        @Override
+        public Map<String, Object> fold(Map<String, Object> inputs) {
+            return Collections.emptyMap();
+        }
+
+        @Override
+        public AbstractNode createCopy(NodeGraph graph, String name) {
+            return new FoldableSink(graph, name);
+        }
+    }
+
     @Test
     public void testComplexMathGraph() {
         NodeGraph graph = TestUtils.makeTestMathLongGraph();
@@ -28,4 +79,397 @@ public class MathTester {
         long val = returnNode.get();
         Assert.assertEquals(28, val);
     }
+
+    @Test
+    public void testDoubleMathGraph() {
+        NodeGraph graph = new NodeGraph();
+        INode a = graph.addCopyOf(MathNodes.doubleCreator.createNode(1.5), "a");
+        INode b = graph.addCopyOf(MathNodes.doubleCreator.createNode(2.5), "b");
+        INode c = graph.addCopyOf(MathNodes.doubleCreator.createNode(3.0), "c");
+        INode adder = graph.addCopyOf(MathNodes.doubleAdder, "adder");
+        INode multiplier = graph.addCopyOf(MathNodes.doubleMultiplier, "multiplier");
+        ReturnNode<Double> returnNode = graph.addCopyOf(MathNodes.doubleReturner, "return");
+
+        graph.connectIO(a, "val", adder, "a");
+        graph.connectIO(b, "val", adder, "b");
+        graph.connectIO(adder, "ans", multiplier, "a");
+        graph.connectIO(c, "val", multiplier, "b");
+        graph.connectIO(multiplier, "ans", returnNode, "val");
+
+        Assert.assertEquals(12.0, returnNode.get(), 0);
+    }
+
+    @Test
+    public void testScheduleOnlyContainsDependencies() {
+        NodeGraph graph = TestUtils.makeTestMathLongGraph();
+
+        INode fifthAdder = graph.getNode("fifthAdder");
+        DebugNode debugNode = graph.addCopyOf(DebugNode.usingSystemOut, "debug");
+        graph.connectIO(graph.getNode("subtractor"), "ans", debugNode, "val");
+
+        ExecutionPlan plan = graph.compile();
+        int[] schedule = plan.getSchedule(plan.indexOf(fifthAdder));
+        // Every node in the test graph except the debug node
+        Assert.assertEquals(plan.size() - 1, schedule.length);
+        Assert.assertEquals(plan.indexOf(fifthAdder), schedule[schedule.length - 1]);
+
+        schedule = plan.getSchedule(plan.indexOf(debugNode));
+        // debug <- subtractor <- (4, 2)
+        Assert.assertEquals(4, schedule.length);
+    }
+
+    @Test
+    public void testTopology() {
+        NodeGraph graph = new NodeGraph();
+        INode four = graph.addCopyOf(MathNodes.longCreator.createNode(4L), "four");
+        INode two = graph.addCopyOf(MathNodes.longCreator.createNode(2L), "two");
+        INode doubler = graph.addCopyOf(MathNodes.longAdder, "doubler");
+        INode adder = graph.addCopyOf(MathNodes.longAdder, "adder");
+        graph.connectIO(four, "val", doubler, "a");
+        graph.connectIO(four, "val", doubler, "b");
+        graph.connectIO(four, "val", adder, "a");
+        graph.connectIO(doubler, "ans", adder, "b");
+
+        ExecutionPlan plan = graph.compile();
+        // Both inputs of the doubler come from the same node, so it is only upstream once
+        Assert.assertArrayEquals(new int[] { 0 }, plan.getUpstream(2));
+        Assert.assertArrayEquals(new int[] { 0, 2 }, plan.getUpstream(3));
+        Assert.assertArrayEquals(new int[] { 2, 3 }, plan.getDownstream(0));
+        Assert.assertArrayEquals(new int[0], plan.getDownstream(1));
+        Assert.assertEquals(2, plan.getLevel(3));
+
+        // Connecting an input again replaces its old connection
+        graph.connectIO(two, "val", adder, "a");
+        plan = graph.compile();
+        Assert.assertArrayEquals(new int[] { 1, 2 }, plan.getUpstream(3));
+        Assert.assertArrayEquals(new int[] { 2 }, plan.getDownstream(0));
+
+        ReturnNode<Long> returnNode = graph.addCopyOf(MathNodes.longReturner, "return");
+        graph.connectIO(adder, "ans", returnNode, "val");
+        Assert.assertEquals(10, (long) returnNode.get());
+        Assert.assertSame(adder, graph.getNode("adder"));
+        Assert.assertEquals(-1, plan.indexOf(returnNode));
+    }
+
+    @Test
+    public void testOptimizer() {
+        NodeGraph graph = TestUtils.makeTestMathLongGraph();
+        ReturnNode<Long> returnNode = graph.addCopyOf(MathNodes.longReturner, "return");
+        graph.connectIO(graph.getNode("fifthAdder"), "ans", returnNode, "val");
+        // Never reaches a sink
+        INode unused = graph.addCopyOf(MathNodes.longMultiplier, "unused");
+        graph.connectIO(graph.getNode("1"), "val", unused, "a");
+        graph.connectIO(graph.getNode("1"), "val", unused, "b");
+        // Can't be folded, as it has to throw when it is evaluated
+        INode zero = graph.addCopyOf(MathNodes.longCreator.createNode(0L), "zero");
+        INode divider = graph.addCopyOf(MathNodes.longDivider, "divider");
+        graph.connectIO(graph.getNode("4"), "val", divider, "a");
+        graph.connectIO(zero, "val", divider, "b");
+        DebugNode debugNode = graph.addCopyOf(DebugNode.usingSystemOut, "debug");
+        graph.connectIO(divider, "ans", debugNode, "val");
+        int size = graph.compile().size();
+
+        GraphOptimizer.Result result = GraphOptimizer.optimize(graph);
+        Assert.assertEquals(Arrays.asList(graph.getNode("fifthAdder")), result.getFolded());
+        Assert.assertTrue(result.getRemoved().contains(unused));
+        Assert.assertTrue(result.getRemoved().contains(graph.getNode("firstAdder")));
+        Assert.assertNull(result.get(graph.getNode("fifthAdder")));
+        Assert.assertNotNull(result.get(divider));
+        // fifthAdder, return, 4, zero, divider and debug
+        Assert.assertEquals(6, result.getGraph().compile().size());
+        Assert.assertEquals(size, graph.compile().size());
+
+        ReturnNode<Long> optimizedReturn = result.get(returnNode);
+        Assert.assertEquals(28, (long) optimizedReturn.get());
+        Assert.assertEquals(28, (long) returnNode.get());
+    }
+
+    @Test
+    public void testOptimizerKeepsFoldableSinks() {
+        NodeGraph graph = TestUtils.makeTestMathLongGraph();
+        FoldableSink sink = new FoldableSink(graph, "sink");
+        graph.addNode(sink);
+        graph.connectIO(graph.getNode("fifthAdder"), "ans", sink, "val");
+
+        GraphOptimizer.Result result = GraphOptimizer.optimize(graph);
+        Assert.assertFalse(result.getFolded().contains(sink));
+        Assert.assertNotNull(result.get(sink));
+        // fifthAdder is folded into a value node that feeds the sink
+        Assert.assertEquals(Arrays.asList(graph.getNode("fifthAdder")), result.getFolded());
+        Assert.assertEquals(2, result.getGraph().compile().size());
+    }
+
+    @Test
+    public void testOptimizerMergesIdenticalNodes() {
+        NodeGraph graph = new NodeGraph();
+        INode four = graph.addCopyOf(MathNodes.longCreator.createNode(4L), "four");
+        INode otherFour = graph.addCopyOf(MathNodes.longCreator.createNode(4L), "otherFour");
+        INode zero = graph.addCopyOf(MathNodes.longCreator.createNode(0L), "zero");
+        // Division by 0 can't be folded, so these have to be merged instead
+        INode divider = graph.addCopyOf(MathNodes.longDivider, "divider");
+        graph.connectIO(four, "val", divider, "a");
+        graph.connectIO(zero, "val", divider, "b");
+        INode otherDivider = graph.addCopyOf(MathNodes.longDivider, "otherDivider");
+        graph.connectIO(otherFour, "val", otherDivider, "a");
+        graph.connectIO(zero, "val", otherDivider, "b");
+        graph.connectIO(divider, "ans", graph.addCopyOf(DebugNode.usingSystemOut, "debug"), "val");
+        graph.connectIO(otherDivider, "ans", graph.addCopyOf(DebugNode.usingSystemOut, "otherDebug"), "val");
+        // Both of these fold to 8
+        INode sum = graph.addCopyOf(MathNodes.longAdder, "sum");
+        graph.connectIO(four, "val", sum, "a");
+        graph.connectIO(otherFour, "val", sum, "b");
+        INode two = graph.addCopyOf(MathNodes.longCreator.createNode(2L), "two");
+        INode product = graph.addCopyOf(MathNodes.longMultiplier, "product");
+        graph.connectIO(four, "val", product, "a");
+        graph.connectIO(two, "val", product, "b");
+        ReturnNode<Long> sumReturn = graph.addCopyOf(MathNodes.longReturner, "sumReturn");
+        graph.connectIO(sum, "ans", sumReturn, "val");
+        ReturnNode<Long> productReturn = graph.addCopyOf(MathNodes.longReturner, "productReturn");
+        graph.connectIO(product, "ans", productReturn, "val");
+
+        GraphOptimizer.Result result = GraphOptimizer.optimize(graph);
+        Assert.assertEquals(Arrays.asList(otherFour, otherDivider), result.getMerged());
+        Assert.assertSame(result.get(divider), result.get(otherDivider));
+        // four, zero, divider, debug, otherDebug, 8, sumReturn and productReturn
+        Assert.assertEquals(8, result.getGraph().compile().size());
+        Assert.assertEquals(8, (long) result.get(sumReturn).get());
+        Assert.assertEquals(8, (long) result.get(productReturn).get());
+    }
+
+    @Test
+    public void testCompiler() {
+        NodeGraph graph = TestUtils.makeWideMathLongGraph(4, 50);
+        ReturnNode<Long> returnNode = graph.addCopyOf(MathNodes.longReturner, "return");
+        graph.connectIO(graph.getNode("sum"), "ans", returnNode, "val");
+        Assert.assertTrue(MathCompiler.canCompile(returnNode));
+        LongSupplier compiled = MathCompiler.compileLong(returnNode);
+        Assert.assertEquals((long) returnNode.get(), compiled.getAsLong());
+
+        graph = new NodeGraph();
+        INode half = graph.addCopyOf(MathNodes.doubleCreator.createNode(0.5), "half");
+        INode three = graph.addCopyOf(MathNodes.doubleCreator.createNode(3.0), "three");
+        INode power = graph.addCopyOf(MathNodes.doublePower, "power");
+        INode divider = graph.addCopyOf(MathNodes.doubleDivider, "divider");
+        graph.connectIO(three, "val", power, "a");
+        graph.connectIO(half, "val", power, "b");
+        graph.connectIO(power, "ans", divider, "a");
+        graph.connectIO(three, "val", divider, "b");
+        ReturnNode<Double> doubleReturn = graph.addCopyOf(MathNodes.doubleReturner, "return");
+        graph.connectIO(divider, "ans", doubleReturn, "val");
+        Assert.assertEquals(doubleReturn.get(), MathCompiler.compileDouble(doubleReturn).getAsDouble(), 0);
+    }
+
+    @Test
+    public void testCompilerFallback() {
+        NodeGraph graph = new NodeGraph();
+        INode four = graph.addCopyOf(MathNodes.longCreator.createNode(4L), "four");
+        INode zero = graph.addCopyOf(MathNodes.longCreator.createNode(0L), "zero");
+        // Not one of the built in operations, so it can only be interpreted
+        INode xor = graph.addCopyOf(new LongNode(MathNodes.mathRegistry, "LongXor", (a, b) -> a ^ b), "xor");
+        INode divider = graph.addCopyOf(MathNodes.longDivider, "divider");
+        graph.connectIO(four, "val", xor, "a");
+        graph.connectIO(four, "val", xor, "b");
+        graph.connectIO(four, "val", divider, "a");
+        graph.connectIO(zero, "val", divider, "b");
+        ReturnNode<Long> xorReturn = graph.addCopyOf(MathNodes.longReturner, "xorReturn");
+        graph.connectIO(xor, "ans", xorReturn, "val");
+        ReturnNode<Long> divideReturn = graph.addCopyOf(MathNodes.longReturner, "divideReturn");
+        graph.connectIO(divider, "ans", divideReturn, "val");
+
+        Assert.assertFalse(MathCompiler.canCompile(xorReturn));
+        Assert.assertEquals(0, MathCompiler.compileLong(xorReturn).getAsLong());
+
+        // Compiled code must fail in the same way
+        Assert.assertTrue(MathCompiler.canCompile(divideReturn));
+        LongSupplier compiled = MathCompiler.compileLong(divideReturn);
+        try {
+            compiled.getAsLong();
+            Assert.fail("Divided by zero");
+        } catch (ArithmeticException expected) {}
+    }
+
+    /** @return The value node with the given name, which must have been made from {@link MathNodes#longCreator}. */
+    @SuppressWarnings("unchecked")
+    private static ValueNode<Long> longValue(NodeGraph graph, String name) {
+        return (ValueNode<Long>) graph.getNode(name);
+    }
+
+    @Test
+    public void testIncremental() {
+        NodeGraph graph = TestUtils.makeTestMathLongGraph();
+        ReturnNode<Long> returnNode = graph.addCopyOf(MathNodes.longReturner, "return");
+        graph.connectIO(graph.getNode("fifthAdder"), "ans", returnNode, "val");
+        graph.setIncremental(true);
+        int[] computed = { 0 };
+        graph.setTracer(new GraphTracer() {
+            @Override
+            public void onComputeStart(INode node) {
+                if (!(node instanceof ReturnNode))
+                    computed[0]++;
+            }
+        });
+
+        Assert.assertEquals(28, (long) returnNode.get());
+        Assert.assertEquals(9, computed[0]);
+        Assert.assertEquals(Arrays.asList(28L, 28L), returnNode.get(2));
+        Assert.assertEquals(9, computed[0]);
+
+        // Only "2", subtractor, secondAdder, thirdAdder, forthAdder and fifthAdder depend on this
+        longValue(graph, "2").setValue(0L);
+        Assert.assertEquals(36, (long) returnNode.get());
+        Assert.assertEquals(15, computed[0]);
+
+        // Changing the structure means everything has to be computed again
+        INode zero = graph.addCopyOf(MathNodes.longCreator.createNode(0L), "zero");
+        INode adder = graph.addCopyOf(MathNodes.longAdder, "adder");
+        graph.connectIO(graph.getNode("fifthAdder"), "ans", adder, "a");
+        graph.connectIO(zero, "val", adder, "b");
+        ReturnNode<Long> otherReturn = graph.addCopyOf(MathNodes.longReturner, "otherReturn");
+        graph.connectIO(adder, "ans", otherReturn, "val");
+        Assert.assertEquals(36, (long) otherReturn.get());
+        Assert.assertEquals(26, computed[0]);
+
+        graph.setIncremental(false);
+        longValue(graph, "1").setValue(3L);
+        Assert.assertEquals(44, (long) returnNode.get());
+    }
+
+    @Test
+    public void testIncrementalIterateNode() {
+        // Iterating a node that isn't a return node has to ask that node for its inputs too
+        for (boolean incremental : new boolean[] { false, true }) {
+            NodeGraph graph = TestUtils.makeTestMathLongGraph();
+            graph.setIncremental(incremental);
+            INode fifthAdder = graph.getNode("fifthAdder");
+            INode doubler = graph.addCopyOf(MathNodes.longAdder, "doubler");
+            graph.connectIO(fifthAdder, "ans", doubler, "a");
+            graph.connectIO(fifthAdder, "ans", doubler, "b");
+            fifthAdder.getOutputs().get("ans").requestUpTo(1);
+            graph.iterate(fifthAdder);
+            GraphConnection<?> in = doubler.getInputs().get("a");
+            Assert.assertEquals("incremental = " + incremental, 1, in.getRemainingElements());
+            Assert.assertEquals(28L, in.pop());
+        }
+    }
+
+    @Test
+    public void testBatchGetUsesOneIteration() {
+        NodeGraph graph = TestUtils.makeTestMathLongGraph();
+        ReturnNode<Long> returnNode = graph.addCopyOf(MathNodes.longReturner, "return");
+        graph.connectIO(graph.getNode("fifthAdder"), "ans", returnNode, "val");
+        int[] iterations = { 0 };
+        graph.setTracer(new GraphTracer() {
+            @Override
+            public void onIterationStart(NodeGraph graph) {
+                iterations[0]++;
+            }
+        });
+
+        long[] values = new long[1000];
+        returnNode.get(values);
+        long[] expected = new long[1000];
+        Arrays.fill(expected, 28);
+        Assert.assertArrayEquals(expected, values);
+        Assert.assertEquals(1, iterations[0]);
+
+        Assert.assertEquals(Arrays.asList(28L, 28L, 28L), returnNode.get(3));
+        Assert.assertEquals(2, iterations[0]);
+    }
+
+    @Test
+    public void testInputNodes() {
+        NodeGraph graph = new NodeGraph(64);
+        InputNode<Long> input = graph.addCopyOf(MathNodes.longInput, "input");
+        INode two = graph.addCopyOf(MathNodes.longCreator.createNode(2L), "two");
+        INode multiplier = graph.addCopyOf(MathNodes.longMultiplier, "multiplier");
+        ReturnNode<Long> returnNode = graph.addCopyOf(MathNodes.longReturner, "return");
+        graph.connectIO(input, "val", multiplier, "a");
+        graph.connectIO(two, "val", multiplier, "b");
+        graph.connectIO(multiplier, "ans", returnNode, "val");
+
+        // Only as many values as have been asked for are ever read from the stream
+        long[] read = { 0 };
+        input.setSource(LongStream.range(0, 100_000).peek(l -> read[0]++));
+        Assert.assertEquals(0, (long) returnNode.get());
+        Assert.assertEquals(1, read[0]);
+        long[] values = new long[99_999];
+        returnNode.get(values);
+        for (int i = 0; i < values.length; i++) {
+            Assert.assertEquals(2 * (i + 1), values[i]);
+        }
+        Assert.assertEquals(100_000, read[0]);
+        Assert.assertFalse(input.isExhausted());
+        try {
+            returnNode.get();
+            Assert.fail("Computed a value after the stream ran out");
+        } catch (IllegalStateException expected) {}
+        Assert.assertTrue(input.isExhausted());
+
+        input.setSource(new long[] { 5, 6, 7, 8 }, 1, 2);
+        Assert.assertEquals(Arrays.asList(12L, 14L), returnNode.get(2));
+
+        input.setSource(Arrays.asList(3L, 4L).spliterator());
+        Assert.assertEquals(Arrays.asList(6L, 8L), returnNode.get(2));
+
+        NodeGraph doubleGraph = new NodeGraph();
+        InputNode<Double> doubleInput = doubleGraph.addCopyOf(MathNodes.doubleInput, "input");
+        ReturnNode<Double> doubleReturn = doubleGraph.addCopyOf(MathNodes.doubleReturner, "return");
+        doubleGraph.connectIO(doubleInput, "val", doubleReturn, "val");
+        doubleInput.setSource(new double[] { 0.5, 1.5, 2.5 }, 0, 3);
+        double[] doubles = new double[3];
+        doubleReturn.get(doubles);
+        Assert.assertArrayEquals(new double[] { 0.5, 1.5, 2.5 }, doubles, 0);
+        try {
+            doubleInput.setSource(LongStream.range(0, 1));
+            Assert.fail("Set a stream of longs as the source of a double input");
+        } catch (IllegalStateException expected) {}
+    }
+
+    @Test
+    public void testChannelSink() throws IOException {
+        NodeGraph graph = new NodeGraph(64);
+        InputNode<Long> input = graph.addCopyOf(MathNodes.longInput, "input");
+        INode two = graph.addCopyOf(MathNodes.longCreator.createNode(2L), "two");
+        INode multiplier = graph.addCopyOf(MathNodes.longMultiplier, "multiplier");
+        ChannelSinkNode<Long> sink = graph.addCopyOf(MathNodes.longSink, "sink");
+        graph.connectIO(input, "val", multiplier, "a");
+        graph.connectIO(two, "val", multiplier, "b");
+        graph.connectIO(multiplier, "ans", sink, "val");
+
+        Path file = Files.createTempFile("sink", ".bin");
+        try {
+            input.setSource(LongStream.range(0, 10_000));
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+                sink.setChannel(channel, Encoding.BINARY, 256);
+                Assert.assertEquals(10_000, sink.drain(Long.MAX_VALUE));
+            }
+            ByteBuffer written = ByteBuffer.wrap(Files.readAllBytes(file));
+            Assert.assertEquals(10_000 * 8, written.remaining());
+            for (int i = 0; i < 10_000; i++) {
+                Assert.assertEquals(2L * i, written.getLong());
+            }
+        } finally {
+            Files.delete(file);
+        }
+
+        ByteArrayOutputStream text = new ByteArrayOutputStream();
+        input.setSource(new long[] { -5, 0, 6, Long.MIN_VALUE / 2 }, 0, 4);
+        sink.setChannel(Channels.newChannel(text), Encoding.TEXT);
+        sink.setDelimiter(",");
+        Assert.assertEquals(2, sink.drain(2));
+        Assert.assertEquals("-10,0,", new String(text.toByteArray(), StandardCharsets.UTF_8));
+        Assert.assertEquals(2, sink.drain(Long.MAX_VALUE));
+        Assert.assertEquals("-10,0,12," + Long.MIN_VALUE + ",", new String(text.toByteArray(), StandardCharsets.UTF_8));
+        Assert.assertEquals(10_004, sink.getWrittenCount());
+
+        NodeGraph doubleGraph = new NodeGraph();
+        InputNode<Double> doubleInput = doubleGraph.addCopyOf(MathNodes.doubleInput, "input");
+        ChannelSinkNode<Double> doubleSink = doubleGraph.addCopyOf(MathNodes.doubleSink, "sink");
+        doubleGraph.connectIO(doubleInput, "val", doubleSink, "val");
+        doubleInput.setSource(new double[] { 0.5, -1 }, 0, 2);
+        text.reset();
+        doubleSink.setChannel(Channels.newChannel(text), Encoding.TEXT);
+        Assert.assertEquals(2, doubleSink.drain(Long.MAX_VALUE));
+        Assert.assertEquals("0.5\n-1.0\n", new String(text.toByteArray(), StandardCharsets.UTF_8));
+    }
 }
@@ -0,0 +1,76 @@
+/* Copyright (c) 2015 AlexIIL
+ *
+ * See the file "LICENSE" for copying permission. */
+package alexiil.node.core.test;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import alexiil.node.core.GraphMetrics;
+import alexiil.node.core.GraphMetrics.NodeSnapshot;
+import alexiil.node.core.GraphMetrics.Snapshot;
+import alexiil.node.core.INode;
+import alexiil.node.core.NodeGraph;
+import alexiil.node.core.ReturnNode;
+import alexiil.node.core.math.MathNodes;
+
+public class MetricsTester {
+    @Test
+    public void testNodeCounts() {
+        NodeGraph graph = TestUtils.makeTestMathLongGraph();
+        GraphMetrics metrics = new GraphMetrics();
+        graph.setTracer(metrics);
+
+        INode fifthAdder = graph.getNode("fifthAdder");
+        ReturnNode<Long> returnNode = graph.addCopyOf(MathNodes.longReturner, "return");
+        graph.connectIO(fifthAdder, "ans", returnNode, "val");
+
+        Assert.assertEquals(28, (long) returnNode.get());
+        Assert.assertEquals(28, (long) returnNode.get());
+
+        Snapshot snapshot = metrics.snapshot();
+        NodeSnapshot secondAdder = snapshot.getNode("secondAdder");
+        Assert.assertEquals(2, secondAdder.invocations);
+        Assert.assertEquals(2, secondAdder.produced);
+        Assert.assertEquals(4, secondAdder.consumed);
+        Assert.assertEquals(2, secondAdder.getSampleCount());
+
+        String text = metrics.toPrometheus();
+        Assert.assertTrue(text.contains("nodegraph_node_invocations_total{node=\"fifthAdder\",type=\"math:LongAdder\"} 2\n"));
+        Assert.assertTrue(text.contains("nodegraph_connection_queue_depth_max{node=\"thirdAdder\",port=\"a\",direction=\"in\"} 1\n"));
+        Assert.assertTrue(text.contains("nodegraph_node_compute_seconds_count{node=\"fifthAdder\",type=\"math:LongAdder\"} 2\n"));
+    }
+
+    @Test
+    public void testSampling() {
+        NodeGraph graph = TestUtils.makeTestMathLongGraph();
+        GraphMetrics metrics = new GraphMetrics(4);
+        graph.setTracer(metrics);
+
+        INode fifthAdder = graph.getNode("fifthAdder");
+        ReturnNode<Long> returnNode = graph.addCopyOf(MathNodes.longReturner, "return");
+        graph.connectIO(fifthAdder, "ans", returnNode, "val");
+
+        for (int i = 0; i < 8; i++) {
+            returnNode.get();
+        }
+        NodeSnapshot snapshot = metrics.snapshot().getNode("fifthAdder");
+        Assert.assertEquals(8, snapshot.invocations);
+        Assert.assertEquals(2, snapshot.getSampleCount());
+
+        // Nodes keep the same stats after a reset, so counting carries on from zero
+        metrics.reset();
+        Assert.assertEquals(0, metrics.snapshot().getNode("fifthAdder").invocations);
+        returnNode.get();
+        Assert.assertEquals(1, metrics.snapshot().getNode("fifthAdder").invocations);
+
+        GraphMetrics untimed = new GraphMetrics(0);
+        graph.setTracer(untimed);
+        returnNode.get();
+        snapshot = untimed.snapshot().getNode("fifthAdder");
+        Assert.assertEquals(1, snapshot.invocations);
+        Assert.assertEquals(0, snapshot.getSampleCount());
+        // The first metrics didn't see anything that happened while the second was attached
+        Assert.assertEquals(1, metrics.snapshot().getNode("fifthAdder").invocations);
+    }
+}
@@ -0,0 +1,47 @@
+/* Copyright (c) 2015 AlexIIL
+ *
+ * See the file "LICENSE" for copying permission. */
+package alexiil.node.core.test;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import alexiil.node.core.NodeGraph;
+import alexiil.node.core.ReturnNode;
+import alexiil.node.core.StreamingPipeline;
+import alexiil.node.core.math.MathNodes;
+
+public class PipelineTester {
+    private static ReturnNode<Long> addReturn(NodeGraph graph) {
+        ReturnNode<Long> returnNode = graph.addCopyOf(MathNodes.longReturner, "return");
+        graph.connectIO(graph.getNode("sum"), "ans", returnNode, "val");
+        return returnNode;
+    }
+
+    @Test
+    public void testStreamingMatchesSequential() {
+        long expected = addReturn(TestUtils.makeWideMathLongGraph(8, 4)).get();
+
+        NodeGraph graph = TestUtils.makeWideMathLongGraph(8, 4);
+        ReturnNode<Long> returnNode = addReturn(graph);
+        try (StreamingPipeline pipeline = StreamingPipeline.start(graph, 4, Thread::new)) {
+            Assert.assertTrue(graph.isStreaming());
+            for (int i = 0; i < 1000; i++) {
+                Assert.assertEquals(expected, (long) returnNode.get());
+            }
+            Assert.assertNull(pipeline.getFailure());
+        }
+        Assert.assertFalse(graph.isStreaming());
+        // Back to the normal pull based mode
+        Assert.assertEquals(expected, (long) returnNode.get());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testCannotChangeWhileStreaming() {
+        NodeGraph graph = TestUtils.makeTestMathLongGraph();
+        try (StreamingPipeline pipeline = StreamingPipeline.start(graph)) {
+            Assert.assertTrue(pipeline.isRunning());
+            graph.addCopyOf(MathNodes.longAdder, "extra");
+        }
+    }
+}
@@ -1,5 +1,7 @@
 package alexiil.node.core.test;
 
+import java.util.Arrays;
+
 import alexiil.node.core.INode;
 import alexiil.node.core.NodeGraph;
 import alexiil.node.core.math.MathNodes;
@@ -42,4 +44,35 @@ public class TestUtils {
         graph.connectIO(forthAdder, "ans", fifthAdder, "b");
         return graph;
     }
+
+    /** Makes a graph that is "width" adders wide and "depth" adders deep, where each adder adds two neighbouring nodes
+     * of the level above. Everything is summed up into a node called "sum". */
+    public static NodeGraph makeWideMathLongGraph(int width, int depth) {
+        NodeGraph graph = new NodeGraph();
+        INode[] level = new INode[width];
+        String[] ports = new String[width];
+        for (int i = 0; i < width; i++) {
+            level[i] = graph.addCopyOf(MathNodes.longCreator.createNode((long) i), "value" + i);
+            ports[i] = "val";
+        }
+        for (int d = 0; d < depth; d++) {
+            INode[] next = new INode[width];
+            for (int i = 0; i < width; i++) {
+                next[i] = graph.addCopyOf(MathNodes.longAdder, "adder" + d + "_" + i);
+                graph.connectIO(level[i], ports[i], next[i], "a");
+                graph.connectIO(level[(i + 1) % width], ports[(i + 1) % width], next[i], "b");
+            }
+            level = next;
+            ports = new String[width];
+            Arrays.fill(ports, "ans");
+        }
+        INode sum = level[0];
+        for (int i = 1; i < width; i++) {
+            INode adder = graph.addCopyOf(MathNodes.longAdder, i == width - 1 ? "sum" : "sum" + i);
+            graph.connectIO(sum, "ans", adder, "a");
+            graph.connectIO(level[i], ports[i], adder, "b");
+            sum = adder;
+        }
+        return graph;
+    }
 }
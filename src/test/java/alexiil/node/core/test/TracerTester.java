@@ -0,0 +1,128 @@
+/* Copyright (c) 2015 AlexIIL
+ *
+ * See the file "LICENSE" for copying permission. */
+package alexiil.node.core.test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.google.common.collect.Lists;
+
+import alexiil.node.core.GraphTracer;
+import alexiil.node.core.INode;
+import alexiil.node.core.NodeGraph;
+import alexiil.node.core.NodeGraph.GraphConnection;
+import alexiil.node.core.PrintingTracer;
+import alexiil.node.core.ReturnNode;
+import alexiil.node.core.math.MathNodes;
+
+public class TracerTester {
+    /** Records every event as a short string, such as "push sum.ans 1". */
+    private static class RecordingTracer implements GraphTracer {
+        final List<String> events = Lists.newArrayList();
+
+        @Override
+        public void onIterationStart(NodeGraph graph) {
+            events.add("start");
+        }
+
+        @Override
+        public void onIterationEnd(NodeGraph graph) {
+            events.add("end");
+        }
+
+        @Override
+        public void onRequest(GraphConnection<?> connection, int count) {
+            events.add("request " + describe(connection) + " " + count);
+        }
+
+        @Override
+        public void onPush(GraphConnection<?> connection, int count) {
+            events.add("push " + describe(connection) + " " + count);
+        }
+
+        @Override
+        public void onPop(GraphConnection<?> connection, int count) {
+            events.add("pop " + describe(connection) + " " + count);
+        }
+
+        @Override
+        public void onComputeStart(INode node) {
+            events.add("compute " + node.getName());
+        }
+
+        @Override
+        public void onComputeEnd(INode node, boolean pushed) {
+            events.add("computed " + node.getName() + " " + pushed);
+        }
+
+        private static String describe(GraphConnection<?> connection) {
+            return connection.getNode().getName() + "." + connection.getName();
+        }
+    }
+
+    @Test
+    public void testEventOrder() {
+        NodeGraph graph = new NodeGraph();
+        INode a = graph.addCopyOf(MathNodes.longCreator.createNode(3L), "a");
+        INode b = graph.addCopyOf(MathNodes.longCreator.createNode(4L), "b");
+        INode sum = graph.addCopyOf(MathNodes.longAdder, "sum");
+        ReturnNode<Long> returnNode = graph.addCopyOf(MathNodes.longReturner, "return");
+        graph.connectIO(a, "val", sum, "a");
+        graph.connectIO(b, "val", sum, "b");
+        graph.connectIO(sum, "ans", returnNode, "val");
+
+        RecordingTracer tracer = new RecordingTracer();
+        graph.setTracer(tracer);
+        Assert.assertEquals(7, (long) returnNode.get());
+        List<String> expected = Lists.newArrayList(
+                // The return node asks for its element before the graph is iterated
+                "request return.val 1", "start",
+                // Requests are passed all of the way up before anything computes
+                "request sum.ans 1", "request sum.a 1", "request sum.b 1", "request a.val 1", "request b.val 1",
+                // Pushing to an output pushes to the connected input first
+                "compute a", "push sum.a 1", "push a.val 1", "computed a true",
+                "compute a", "computed a false",
+                "compute b", "push sum.b 1", "push b.val 1", "computed b true",
+                "compute b", "computed b false",
+                "compute sum", "pop sum.a 1", "pop sum.b 1", "push return.val 1", "push sum.ans 1", "computed sum true",
+                "compute return", "computed return false",
+                "end",
+                // The return node only takes its element once the iteration is over
+                "pop return.val 1");
+        Assert.assertEquals(expected, tracer.events);
+
+        // Evaluating again goes through exactly the same events
+        tracer.events.clear();
+        Assert.assertEquals(7, (long) returnNode.get());
+        Assert.assertEquals(expected, tracer.events);
+
+        graph.setTracer(null);
+        tracer.events.clear();
+        Assert.assertEquals(7, (long) returnNode.get());
+        Assert.assertTrue(tracer.events.isEmpty());
+    }
+
+    @Test
+    public void testPrintingTracer() {
+        NodeGraph graph = TestUtils.makeTestMathLongGraph();
+        ReturnNode<Long> returnNode = graph.addCopyOf(MathNodes.longReturner, "return");
+        graph.connectIO(graph.getNode("fifthAdder"), "ans", returnNode, "val");
+
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        graph.setTracer(new PrintingTracer(new PrintStream(baos, true)));
+        Assert.assertEquals(28, (long) returnNode.get());
+        String printed = new String(baos.toByteArray(), StandardCharsets.UTF_8);
+        Assert.assertTrue(printed.startsWith("State of input val for node return AFTER requesting 1"));
+        int start = printed.indexOf("Iteration START");
+        int computed = printed.indexOf("State of fifthAdder AFTER computing");
+        int end = printed.indexOf("Iteration END");
+        Assert.assertTrue(start > 0 && computed > start && end > computed);
+        Assert.assertTrue(printed.contains("State of input val for node return AFTER pushing 1"));
+    }
+}